@@ -0,0 +1,115 @@
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
+
+/**
+ * Maps the discrete actions of a task to dense indices 0 .. numActions() - 1
+ * and back.
+ *
+ * The codec is built once from the action ranges of the task spec. Dimension 0
+ * is the least significant digit of the index. Encoding an action is a sum of
+ * table lookups, one per dimension, and decoding returns one cached Action per
+ * index, so neither direction divides, multiplies or allocates as long as the
+ * action space is moderate (at most MAX_CACHED_ACTIONS actions). Larger action
+ * spaces fall back to computing the digits and creating a new Action.
+ *
+ * The cached actions are shared: callers may hand them to RL-Glue or keep them
+ * in a history, but must never modify them.
+ */
+public class ActionCodec {
+
+    public static final int MAX_CACHED_ACTIONS = 1 << 16;
+
+    private final int dims;
+    private final int[] mins;
+    private final int[] sizes;
+    private final int[] steps;
+    private final int numActions;
+
+    // offsets[d][v - mins[d]] is the contribution (v - mins[d]) * steps[d] of value v in dimension d
+    private final int[][] offsets;
+
+    // actions[i] is the action with index i, or null if the action space is too large to cache
+    private final Action[] actions;
+
+    public ActionCodec(TaskSpec ts) {
+        assert (ts.getNumContinuousActionDims() == 0);
+
+        dims = ts.getNumDiscreteActionDims();
+        mins = new int[dims];
+        sizes = new int[dims];
+        steps = new int[dims];
+
+        long count = 1;
+        for (int d = 0; d < dims; d++) {
+            IntRange range = ts.getDiscreteActionRange(d);
+            if (range.hasSpecialMinStatus() || range.hasSpecialMaxStatus())
+                throw new IllegalArgumentException("Action dimension " + d + " has no finite range");
+
+            mins[d] = range.getMin();
+            sizes[d] = range.getRangeSize();
+            steps[d] = (int)count;
+
+            count *= sizes[d];
+            if (count > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many actions to index: " + count + " or more");
+        }
+        numActions = (int)count;
+
+        if (numActions <= MAX_CACHED_ACTIONS) {
+            offsets = new int[dims][];
+            for (int d = 0; d < dims; d++) {
+                offsets[d] = new int[sizes[d]];
+                for (int v = 0; v < sizes[d]; v++)
+                    offsets[d][v] = v * steps[d];
+            }
+
+            actions = new Action[numActions];
+            for (int i = 0; i < numActions; i++)
+                actions[i] = decode(i);
+        } else {
+            offsets = null;
+            actions = null;
+        }
+    }
+
+    public int numActions() {
+        return numActions;
+    }
+
+    public int dims() {
+        return dims;
+    }
+
+    // Compute the index of an action
+    public int index(Action a) {
+        int index = 0;
+
+        if (offsets != null) {
+            for (int d = 0; d < dims; d++)
+                index += offsets[d][a.getInt(d) - mins[d]];
+        } else {
+            for (int d = 0; d < dims; d++)
+                index += (a.getInt(d) - mins[d]) * steps[d];
+        }
+
+        return index;
+    }
+
+    // Return the action with a given index. The result must not be modified.
+    public Action action(int index) {
+        return actions != null ? actions[index] : decode(index);
+    }
+
+    private Action decode(int index) {
+        Action a = new Action(dims, 0, 0);
+
+        for (int d = dims - 1; d >= 0; d--) {
+            int x = index / steps[d];
+            index -= x * steps[d];
+            a.setInt(d, x + mins[d]);
+        }
+
+        return a;
+    }
+}
@@ -10,6 +10,7 @@ public class Agent implements AgentInterface {
     private Random randGenerator = new Random();
     private Action lastAction;
     private Observation lastObservation;
+    private ObservationIndexer observationIndexer;
     private double[][] Q = null;
     private double alpha = 0.1;
     private double epsilon = 0.1;
@@ -27,11 +28,10 @@ public class Agent implements AgentInterface {
         TaskSpec theTaskSpec = new TaskSpec(taskSpecification);
 
         /* Lots of assertions to make sure that we can handle this problem.  */
-        assert (theTaskSpec.getNumDiscreteObsDims() == 1);
         assert (theTaskSpec.getNumContinuousObsDims() == 0);
-        assert (!theTaskSpec.getDiscreteObservationRange(0).hasSpecialMinStatus());
-        assert (!theTaskSpec.getDiscreteObservationRange(0).hasSpecialMaxStatus());
-        numStates = theTaskSpec.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(theTaskSpec);
+        assert (observationIndexer.isDense());
+        numStates = observationIndexer.size();
 
         assert (theTaskSpec.getNumDiscreteActionDims() == 1);
         assert (theTaskSpec.getNumContinuousActionDims() == 0);
@@ -51,7 +51,7 @@ public class Agent implements AgentInterface {
      * @return
      */
     public Action agent_start(Observation observation) {
-        int newActionInt = egreedy(observation.getInt(0));
+        int newActionInt = egreedy(observationIndexer.index(observation));
 
         /**
          * Create a structure to hold 1 integer action
@@ -75,8 +75,8 @@ public class Agent implements AgentInterface {
      * @return
      */
     public Action agent_step(double reward, Observation observation) {
-        int newStateInt = observation.getInt(0);
-        int lastStateInt = lastObservation.getInt(0);
+        int newStateInt = observationIndexer.index(observation);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
         int newActionInt = egreedy(newStateInt);
@@ -103,7 +103,7 @@ public class Agent implements AgentInterface {
      * @param reward
      */
     public void agent_end(double reward) {
-        int lastStateInt = lastObservation.getInt(0);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
         double Q_sa = Q[lastActionInt][lastStateInt];
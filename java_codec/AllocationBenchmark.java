@@ -0,0 +1,92 @@
+import java.lang.management.ManagementFactory;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+
+/**
+ * Measures the heap allocated per env_step by the environments, with the
+ * results reused (the default) and with 'copy-results on'.
+ *
+ * Each environment is stepped with cycling actions, restarting at the end of
+ * every episode. After a warm up the bytes allocated by the thread are read
+ * from the HotSpot ThreadMXBean before and after the measured steps; episode
+ * starts are included. Other environments, such as SkeletonEnvironment from
+ * examples/skeleton-sample when it is on the class path, can be added by
+ * class name.
+ *
+ * Usage: java AllocationBenchmark [steps] [EnvironmentClass ...]
+ */
+public class AllocationBenchmark {
+
+    private static final int WARMUP_STEPS = 500000;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final long steps;
+
+    public AllocationBenchmark(long steps) {
+        this.steps = steps;
+        threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long steps = args.length > 0 ? Long.parseLong(args[0]) : 10000000L;
+        AllocationBenchmark benchmark = new AllocationBenchmark(steps);
+
+        System.out.printf("%d steps per run%n", steps);
+        System.out.printf("%-30s %16s %16s%n", "environment", "reused B/step", "copied B/step");
+
+        benchmark.compare("SampleMinesEnvironment", new SampleMinesEnvironment(), new SampleMinesEnvironment(), null);
+        benchmark.compare("SampleMinesEnvironment slip", new SampleMinesEnvironment(), new SampleMinesEnvironment(),
+                          "set-slip 0.2");
+        benchmark.compare("GarnetEnvironment", new GarnetEnvironment(), new GarnetEnvironment(), null);
+        for (int i = 1; i < args.length; i++) {
+            Class<?> c = Class.forName(args[i]);
+            benchmark.compare(args[i], (EnvironmentInterface)c.getDeclaredConstructor().newInstance(),
+                              (EnvironmentInterface)c.getDeclaredConstructor().newInstance(),
+                              null);
+        }
+    }
+
+    private void compare(String name, EnvironmentInterface reused, EnvironmentInterface copied, String setup) {
+        if (setup != null) {
+            reused.env_message(setup);
+            copied.env_message(setup);
+        }
+        copied.env_message("copy-results on");
+
+        System.out.printf("%-30s %16.3f %16.3f%n", name, bytesPerStep(reused), bytesPerStep(copied));
+    }
+
+    private double bytesPerStep(EnvironmentInterface env) {
+        TaskSpec ts = new TaskSpec(env.env_init());
+        int numActions = ts.getDiscreteActionRange(0).getMax() + 1;
+
+        Action[] actions = new Action[numActions];
+        for (int a = 0; a < numActions; a++) {
+            actions[a] = new Action(1, 0, 0);
+            actions[a].setInt(0, a);
+        }
+
+        env.env_start();
+        run(env, actions, WARMUP_STEPS);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        run(env, actions, steps);
+        long after = threads.getThreadAllocatedBytes(thread);
+
+        env.env_cleanup();
+        return (after - before) / (double)steps;
+    }
+
+    private static void run(EnvironmentInterface env, Action[] actions, long steps) {
+        int a = 0;
+        for (long i = 0; i < steps; i++) {
+            if (env.env_step(actions[a]).isTerminal())
+                env.env_start();
+            if (++a == actions.length)
+                a = 0;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * An agent that learns from a BatchEnvironmentInterface: every call handles
+ * one transition for each of the N slots of the batch.
+ *
+ * Observations and actions are the single integers of a one dimensional
+ * discrete task. The arrays follow the conventions of the batch environment,
+ * so when terminals[i] is set, rewards[i] ends the episode in slot i and
+ * observations[i] is the start of its next episode. The agent remembers the
+ * last observation and action of each slot itself.
+ */
+public interface BatchAgentInterface {
+
+    public void agent_init(String taskSpecification);
+
+    /* Choose the first action of every slot */
+    public void agent_start(int[] observations, int[] actions);
+
+    /* Learn from the transitions of the batch and choose the next actions */
+    public void agent_step(double[] rewards, int[] observations, boolean[] terminals, int[] actions);
+
+    public void agent_cleanup();
+
+    public String agent_message(String message);
+}
@@ -0,0 +1,30 @@
+/**
+ * An environment that runs a fixed number of independent copies of a discrete
+ * task in lockstep, the batched counterpart of EnvironmentInterface.
+ *
+ * Observations, actions, rewards and terminal flags are exchanged through
+ * arrays with one entry per copy (slot), which the caller allocates once and
+ * passes on every call, so stepping the batch allocates nothing.
+ *
+ * Episodes in a slot restart automatically: when env_step ends the episode of
+ * slot i, rewards[i] and terminals[i] describe that last transition and
+ * observations[i] is already the first observation of the next episode in the
+ * slot. A slot never waits for the others to finish.
+ */
+public interface BatchEnvironmentInterface {
+
+    /* The number of copies stepped by every call */
+    public int size();
+
+    /* Returns the task spec of a single copy */
+    public String env_init();
+
+    /* Start an episode in every slot */
+    public void env_start(int[] observations);
+
+    public void env_step(int[] actions, int[] observations, double[] rewards, boolean[] terminals);
+
+    public void env_cleanup();
+
+    public String env_message(String message);
+}
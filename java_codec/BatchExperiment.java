@@ -0,0 +1,130 @@
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+
+/**
+ * Measures the learning throughput of a SARSA agent on a batch environment
+ * against the same agent run one transition at a time through RL-Glue (for
+ * Mines only).
+ *
+ * The batch run steps N copies of the environment in lockstep and hands all
+ * N transitions to the agent at once. Both runs learn for the same number of
+ * transitions; the report gives transitions per second, the number of
+ * finished episodes and the mean return of the episodes finished in the
+ * last tenth of the run.
+ *
+ * Usage: java BatchExperiment [agent] [mines|skeleton] [batchSize] [transitions]
+ * with defaults SampleSarsaAgent, mines, 64 and 20000000.
+ */
+public class BatchExperiment {
+
+    private final String agentClass;
+    private final String envName;
+    private final int batchSize;
+    private final long transitions;
+
+    public BatchExperiment(String agentClass, String envName, int batchSize, long transitions) {
+        this.agentClass = agentClass;
+        this.envName = envName;
+        this.batchSize = batchSize;
+        this.transitions = transitions;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String agentClass = args.length > 0 ? args[0] : "SampleSarsaAgent";
+        String envName = args.length > 1 ? args[1] : "mines";
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long transitions = args.length > 3 ? Long.parseLong(args[3]) : 20000000L;
+
+        BatchExperiment experiment = new BatchExperiment(agentClass, envName, batchSize, transitions);
+        System.out.printf("%s on %s, %d transitions%n", agentClass, envName, transitions);
+        System.out.printf("%-12s %14s %12s %14s%n", "run", "transitions/s", "episodes", "late return");
+        // SkeletonEnvironment is built separately, in examples/skeleton-sample
+        if (!envName.equals("skeleton"))
+            experiment.runSequential();
+        experiment.runBatch();
+    }
+
+    private Object newAgent() throws Exception {
+        return Class.forName(agentClass).getDeclaredConstructor().newInstance();
+    }
+
+    private void runBatch() throws Exception {
+        BatchAgentInterface agent = (BatchAgentInterface)newAgent();
+        BatchEnvironmentInterface env = envName.equals("skeleton") ? new BatchSkeletonEnvironment(batchSize)
+                                                                    : new BatchMinesEnvironment(batchSize);
+
+        int[] observations = new int[batchSize];
+        int[] actions = new int[batchSize];
+        double[] rewards = new double[batchSize];
+        boolean[] terminals = new boolean[batchSize];
+        double[] returns = new double[batchSize];
+
+        agent.agent_init(env.env_init());
+        env.env_start(observations);
+        agent.agent_start(observations, actions);
+
+        long batches = transitions / batchSize;
+        long lateFrom = batches - batches / 10;
+        long episodes = 0;
+        long lateEpisodes = 0;
+        double lateReturn = 0;
+
+        long start = System.nanoTime();
+        for (long b = 0; b < batches; b++) {
+            env.env_step(actions, observations, rewards, terminals);
+            agent.agent_step(rewards, observations, terminals, actions);
+
+            for (int i = 0; i < batchSize; i++) {
+                returns[i] += rewards[i];
+                if (terminals[i]) {
+                    episodes++;
+                    if (b >= lateFrom) {
+                        lateEpisodes++;
+                        lateReturn += returns[i];
+                    }
+                    returns[i] = 0;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        agent.agent_cleanup();
+        env.env_cleanup();
+        report("batch " + batchSize, batches * batchSize, elapsed, episodes, lateReturn, lateEpisodes);
+    }
+
+    private void runSequential() throws Exception {
+        AgentInterface agent = (AgentInterface)newAgent();
+        EnvironmentInterface env = new SampleMinesEnvironment();
+        RLGlue.setGlue(new LocalGlue(env, agent));
+        RLGlue.RL_init();
+
+        long lateFrom = transitions - transitions / 10;
+        long steps = 0;
+        long episodes = 0;
+        long lateEpisodes = 0;
+        double lateReturn = 0;
+
+        long start = System.nanoTime();
+        while (steps < transitions) {
+            RLGlue.RL_episode(0);
+            steps += RLGlue.RL_num_steps();
+            episodes++;
+            if (steps >= lateFrom) {
+                lateEpisodes++;
+                lateReturn += RLGlue.RL_return();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        RLGlue.RL_cleanup();
+        report("sequential", steps, elapsed, episodes, lateReturn, lateEpisodes);
+    }
+
+    private static void report(String name, long steps, long nanos, long episodes, double lateReturn, long lateEpisodes) {
+        System.out.printf("%-12s %14.0f %12d %14.2f%n", name, steps / (nanos / 1e9), episodes,
+                          lateEpisodes == 0 ? Double.NaN : lateReturn / lateEpisodes);
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.Random;
+
+/**
+ * A batch of independent SampleMinesEnvironment episodes on the same map.
+ *
+ * The map is compiled once into the WorldDescription tables and shared; each
+ * slot only keeps the state of its agent, so a step is a few array lookups per
+ * slot. The dynamics, the task spec and the start state and set-slip
+ * messages are those of SampleMinesEnvironment.
+ */
+public class BatchMinesEnvironment implements BatchEnvironmentInterface {
+
+    private final int size;
+    private final int[][] customMap;
+
+    private WorldDescription theWorld;
+    // The state of the agent in each slot
+    private int[] states;
+    private Random randGen = new Random();
+
+    // The state to start in after set-start-state, or -1 for random starts
+    private int fixedStart = -1;
+    private int startRow = 0;
+    private int startCol = 0;
+    private boolean fixedStartState = false;
+    private double slipProbability = 0.0;
+
+    public BatchMinesEnvironment(int size) {
+        this(size, null);
+    }
+
+    public BatchMinesEnvironment(int size, int[][] worldMap) {
+        if (size < 1)
+            throw new IllegalArgumentException("Batch size must be positive: " + size);
+        this.size = size;
+        this.customMap = worldMap;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String env_init() {
+        // The single environment builds the world and the task spec
+        SampleMinesEnvironment single = customMap != null ? new SampleMinesEnvironment(customMap)
+                                                         : new SampleMinesEnvironment();
+        String taskSpec = single.env_init();
+
+        theWorld = single.theWorld;
+        theWorld.setSlipProbability(slipProbability);
+        states = new int[size];
+        updateFixedStart();
+
+        return taskSpec;
+    }
+
+    public void env_start(int[] observations) {
+        for (int i = 0; i < size; i++) {
+            states[i] = startState();
+            observations[i] = states[i];
+        }
+    }
+
+    public void env_step(int[] actions, int[] observations, double[] rewards, boolean[] terminals) {
+        for (int i = 0; i < size; i++) {
+            int s = theWorld.nextState(states[i], actions[i], randGen);
+            boolean terminal = theWorld.isTerminal(s);
+
+            rewards[i] = theWorld.reward(s);
+            terminals[i] = terminal;
+            if (terminal)
+                s = startState();
+
+            states[i] = s;
+            observations[i] = s;
+        }
+    }
+
+    public void env_cleanup() {
+    }
+
+    public String env_message(String message) {
+        if (message.startsWith("set-random-start-state")) {
+            fixedStartState = false;
+            updateFixedStart();
+            return "Message understood.  Using random start state.";
+        }
+
+        if (message.startsWith("set-start-state")) {
+            String[] theTokens = message.split(" ");
+            startRow = Integer.parseInt(theTokens[1]);
+            startCol = Integer.parseInt(theTokens[2]);
+            fixedStartState = true;
+            updateFixedStart();
+            return "Message understood.  Using fixed start state.";
+        }
+
+        if (message.startsWith("set-slip")) {
+            String[] theTokens = message.split(" ");
+            double p;
+            try {
+                p = Double.parseDouble(theTokens[1]);
+            } catch (RuntimeException ex) {
+                return "Could not parse the slip probability: " + message;
+            }
+            if (!(p >= 0 && p <= 1))
+                return "The slip probability must be in [0,1]: " + p;
+            slipProbability = p;
+            if (theWorld != null)
+                theWorld.setSlipProbability(p);
+            return "Message understood.  Slip probability is " + p + ".";
+        }
+
+        if (message.startsWith("what is your name?"))
+            return "my name is BatchMinesEnvironment, Java edition!";
+
+        return "BatchMinesEnvironment(Java) does not respond to that message.";
+    }
+
+    /* Like SampleMinesEnvironment, a fixed start that is not a valid
+     * non-terminal state falls back to random starts.
+     */
+    private void updateFixedStart() {
+        fixedStart = fixedStartState && theWorld != null ? theWorld.startState(startRow, startCol) : -1;
+    }
+
+    private int startState() {
+        return fixedStart >= 0 ? fixedStart : theWorld.randomStartState(randGen);
+    }
+}
@@ -0,0 +1,90 @@
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.DoubleRange;
+
+/**
+ * A batch of independent copies of the chain of SkeletonEnvironment (in
+ * examples/skeleton-sample): states 0 to 20, every episode starts in 10,
+ * action 0 moves left and 1 moves right, and reaching either end finishes the
+ * episode with reward -1 on the left and +1 on the right.
+ */
+public class BatchSkeletonEnvironment implements BatchEnvironmentInterface {
+
+    private static final int NUM_STATES = 21;
+    private static final int START_STATE = 10;
+
+    private final int size;
+    private final int[] states;
+
+    public BatchSkeletonEnvironment(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Batch size must be positive: " + size);
+        this.size = size;
+        states = new int[size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String env_init() {
+        TaskSpecVRLGLUE3 theTaskSpecObject = new TaskSpecVRLGLUE3();
+        theTaskSpecObject.setEpisodic();
+        theTaskSpecObject.setDiscountFactor(1.0d);
+        theTaskSpecObject.addDiscreteObservation(new IntRange(0, NUM_STATES - 1));
+        theTaskSpecObject.addDiscreteAction(new IntRange(0, 1));
+        theTaskSpecObject.setRewardRange(new DoubleRange(-1, 1));
+
+        String taskSpecString = theTaskSpecObject.toTaskSpec();
+        TaskSpec.checkTaskSpec(taskSpecString);
+
+        return taskSpecString;
+    }
+
+    public void env_start(int[] observations) {
+        for (int i = 0; i < size; i++) {
+            states[i] = START_STATE;
+            observations[i] = START_STATE;
+        }
+    }
+
+    public void env_step(int[] actions, int[] observations, double[] rewards, boolean[] terminals) {
+        for (int i = 0; i < size; i++) {
+            // Other actions leave the state unchanged, as in SkeletonEnvironment
+            int s = states[i];
+            if (actions[i] == 0)
+                s--;
+            if (actions[i] == 1)
+                s++;
+
+            if (s <= 0) {
+                s = 0;
+                rewards[i] = -1.0;
+                terminals[i] = true;
+            } else if (s >= NUM_STATES - 1) {
+                s = NUM_STATES - 1;
+                rewards[i] = 1.0;
+                terminals[i] = true;
+            } else {
+                rewards[i] = 0.0;
+                terminals[i] = false;
+            }
+
+            if (terminals[i])
+                s = START_STATE;
+            states[i] = s;
+            observations[i] = s;
+        }
+    }
+
+    public void env_cleanup() {
+    }
+
+    public String env_message(String message) {
+        if (message.equals("what is your name?"))
+            return "my name is BatchSkeletonEnvironment, Java edition!";
+
+        return "I don't know how to respond to your message";
+    }
+}
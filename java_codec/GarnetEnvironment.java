@@ -0,0 +1,497 @@
+import java.util.Arrays;
+import java.util.Random;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+import org.rlcommunity.rlglue.codec.util.EnvironmentLoader;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpecVRLGLUE3;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.DoubleRange;
+
+/**
+ * A randomly generated MDP ("Garnet") with S states, A actions and a
+ * branching factor B.
+ *
+ * From every state-action pair the environment can move to B distinct
+ * successor states drawn uniformly. The transition probabilities come from
+ * B - 1 uniform cut points of [0,1]. Every pair has a mean reward drawn from
+ * the reward distribution (gaussian MEAN SD or uniform MIN MAX). Each step
+ * returns that mean plus gaussian noise with the configured deviation, which
+ * is 0 by default. A given fraction of the states is terminal. Episodes start
+ * in a uniformly drawn non-terminal state. With no terminal states, episodes
+ * are ended only by the step limit of the experiment. The same settings and
+ * seed always give the same MDP.
+ *
+ * Successor states are stored in one flat array with B entries per pair, and
+ * next to each entry its alias table column: the probability of keeping the
+ * entry and the state it is replaced with otherwise. Sampling a successor
+ * costs one random number and two array loads, whatever B is. That is 12
+ * bytes per entry, so 10^5 states with 4 actions and B = 10 take 48 MB.
+ * Steps use their own xorshift generator rather than java.util.Random.
+ *
+ * As in SampleMinesEnvironment, the returned Observation and
+ * Reward_observation_terminal are reused unless 'copy-results on' was sent
+ * (main does so for the socket codec).
+ *
+ * As a SimulatedEnvironment the state is the MDP state, and copies share the
+ * generated model and draw from their own generator. It also runs whole
+ * plans in one call as a MacroActionEnvironment.
+ *
+ * The MDP is configured with messages that take effect at the next env_init:
+ *   'set-garnet S A B', 'set-reward gaussian MEAN SD',
+ *   'set-reward uniform MIN MAX', 'set-reward-noise SD',
+ *   'set-terminal-fraction F', 'set-discount GAMMA' and 'set-seed N'.
+ */
+public class GarnetEnvironment implements SimulatedEnvironment, MacroActionEnvironment {
+
+    // The configuration used by the next env_init
+    private int numStates;
+    private int numActions;
+    private int branching;
+    private long seed;
+    private boolean uniformRewards = false;
+    private double rewardA = 0.0;
+    private double rewardB = 1.0;
+    private double rewardNoise = 0.0;
+    private double terminalFraction = 0.0;
+    private double discount = 0.95;
+
+    // The MDP built by env_init. Entry k of pair (s,a) is at (s * A + a) * B + k
+    private int S;
+    private int A;
+    private int B;
+    private int[] successor;
+    private float[] keep;
+    private int[] alias;
+    private double[] meanReward;
+    private double noise;
+    private boolean[] terminal;
+    private int[] startStates;
+
+    private int state;
+    private long rng;
+    private Random noiseGen;
+    // Seeds the generators of copies, so that copying does not draw from rng
+    private Random copySeeds;
+
+    private boolean copyResults = false;
+    private final Observation theObservation = new Observation(1, 0, 0);
+    private final Reward_observation_terminal theRewardObs = new Reward_observation_terminal();
+
+    public GarnetEnvironment() {
+        this(100, 4, 5, 0);
+    }
+
+    public GarnetEnvironment(int numStates, int numActions, int branching, long seed) {
+        this.numStates = numStates;
+        this.numActions = numActions;
+        this.branching = branching;
+        this.seed = seed;
+    }
+
+    public String env_init() {
+        if (numStates < 1 || numActions < 1 || branching < 1 || branching > numStates)
+            throw new IllegalArgumentException("Need S >= 1, A >= 1 and 1 <= B <= S, not S=" + numStates +
+                                               " A=" + numActions + " B=" + branching);
+        if ((long)numStates * numActions * branching > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("S * A * B must fit into an int");
+
+        generate();
+
+        double minReward = Double.POSITIVE_INFINITY;
+        double maxReward = Double.NEGATIVE_INFINITY;
+        for (double r : meanReward) {
+            minReward = Math.min(minReward, r);
+            maxReward = Math.max(maxReward, r);
+        }
+
+        TaskSpecVRLGLUE3 theTaskSpecObject = new TaskSpecVRLGLUE3();
+        theTaskSpecObject.setEpisodic();
+        theTaskSpecObject.setDiscountFactor(discount);
+        theTaskSpecObject.addDiscreteObservation(new IntRange(0, S - 1));
+        theTaskSpecObject.addDiscreteAction(new IntRange(0, A - 1));
+        // With noise, rewards beyond four deviations are possible but rare
+        theTaskSpecObject.setRewardRange(new DoubleRange(minReward - 4 * noise, maxReward + 4 * noise));
+        theTaskSpecObject.setExtra("GarnetEnvironment(Java) S=" + S + " A=" + A + " B=" + B + " seed=" + seed);
+
+        String taskSpecString = theTaskSpecObject.toTaskSpec();
+        TaskSpec.checkTaskSpec(taskSpecString);
+
+        return taskSpecString;
+    }
+
+    public Observation env_start() {
+        state = startStates[(int)((nextRandom() >>> 33) % startStates.length)];
+        return observation();
+    }
+
+    public Reward_observation_terminal env_step(Action thisAction) {
+        int action = thisAction.getInt(0);
+        assert (action >= 0 && action < A) : "Action should be in [0," + A + "), " + action + " was provided";
+
+        int pair = state * A + action;
+        double reward = meanReward[pair];
+        if (noise > 0)
+            reward += noise * noiseGen.nextGaussian();
+        state = sample(pair);
+
+        Reward_observation_terminal RewardObs = copyResults ? new Reward_observation_terminal() : theRewardObs;
+        RewardObs.setObservation(observation());
+        RewardObs.setTerminal(terminal[state]);
+        RewardObs.setReward(reward);
+
+        return RewardObs;
+    }
+
+    public void executePlan(int[] actions, int[] expected, int length, double gamma, PlanResult result) {
+        result.reset();
+        double discount = 1;
+
+        for (int i = 0; i < length; i++) {
+            int pair = state * A + actions[i];
+            double reward = meanReward[pair];
+            if (noise > 0)
+                reward += noise * noiseGen.nextGaussian();
+            state = sample(pair);
+
+            if (result.rewards != null)
+                result.rewards[i] = reward;
+            result.discountedReward += discount * reward;
+            discount *= gamma;
+            result.steps++;
+
+            if (terminal[state]) {
+                result.stopReason = PlanResult.TERMINAL;
+                break;
+            }
+            if (expected != null && expected[i] >= 0 && state != expected[i]) {
+                result.stopReason = PlanResult.DEVIATED;
+                break;
+            }
+        }
+
+        result.observation = state;
+    }
+
+    public int saveState() {
+        return state;
+    }
+
+    public void restoreState(int s) {
+        if (s < 0 || s >= S)
+            throw new IllegalArgumentException("Not a valid state: " + s);
+        state = s;
+    }
+
+    public SimulatedEnvironment copy() {
+        GarnetEnvironment theCopy = new GarnetEnvironment(numStates, numActions, branching, seed);
+        theCopy.uniformRewards = uniformRewards;
+        theCopy.rewardA = rewardA;
+        theCopy.rewardB = rewardB;
+        theCopy.rewardNoise = rewardNoise;
+        theCopy.terminalFraction = terminalFraction;
+        theCopy.discount = discount;
+
+        theCopy.S = S;
+        theCopy.A = A;
+        theCopy.B = B;
+        theCopy.successor = successor;
+        theCopy.keep = keep;
+        theCopy.alias = alias;
+        theCopy.meanReward = meanReward;
+        theCopy.noise = noise;
+        theCopy.terminal = terminal;
+        theCopy.startStates = startStates;
+        theCopy.state = state;
+        theCopy.copyResults = copyResults;
+
+        // Copies must not repeat the draws of the original, nor advance them
+        if (copySeeds == null)
+            copySeeds = new Random(seed ^ 0x9E3779B97F4A7C15L);
+        theCopy.rng = copySeeds.nextLong() | 1;
+        theCopy.noiseGen = new Random(copySeeds.nextLong());
+        theCopy.copySeeds = new Random(copySeeds.nextLong());
+        return theCopy;
+    }
+
+    private Observation observation() {
+        Observation o = copyResults ? new Observation(1, 0, 0) : theObservation;
+        o.setInt(0, state);
+        return o;
+    }
+
+    public void env_cleanup() {
+    }
+
+    public String env_message(String message) {
+        String[] theTokens = message.split(" ");
+
+        if (message.startsWith("copy-results")) {
+            copyResults = message.endsWith(" on");
+            return "Message understood.  " + (copyResults ? "Copying" : "Reusing") + " results.";
+        }
+
+        try {
+            if (message.startsWith("execute-plan"))
+                return PlanResult.executeMessage(this, message, A);
+
+            if (message.startsWith("save-state"))
+                return Integer.toString(saveState());
+
+            if (message.startsWith("restore-state")) {
+                restoreState(Integer.parseInt(theTokens[1]));
+                return "Message understood.  Restored the state.";
+            }
+
+            if (message.startsWith("set-garnet")) {
+                numStates = Integer.parseInt(theTokens[1]);
+                numActions = Integer.parseInt(theTokens[2]);
+                branching = Integer.parseInt(theTokens[3]);
+                return "Message understood.  S=" + numStates + " A=" + numActions + " B=" + branching +
+                       " from next init.";
+            }
+
+            if (message.startsWith("set-reward-noise")) {
+                rewardNoise = Double.parseDouble(theTokens[1]);
+                return "Message understood.  Reward noise " + rewardNoise + " from next init.";
+            }
+
+            if (message.startsWith("set-reward")) {
+                if (!theTokens[1].equals("gaussian") && !theTokens[1].equals("uniform"))
+                    return "Unknown reward distribution: " + theTokens[1];
+                uniformRewards = theTokens[1].equals("uniform");
+                rewardA = Double.parseDouble(theTokens[2]);
+                rewardB = Double.parseDouble(theTokens[3]);
+                return "Message understood.  " + theTokens[1] + " rewards from next init.";
+            }
+
+            if (message.startsWith("set-terminal-fraction")) {
+                terminalFraction = Double.parseDouble(theTokens[1]);
+                return "Message understood.  Terminal fraction " + terminalFraction + " from next init.";
+            }
+
+            if (message.startsWith("set-discount")) {
+                discount = Double.parseDouble(theTokens[1]);
+                return "Message understood.  Discount " + discount + " from next init.";
+            }
+
+            if (message.startsWith("set-seed")) {
+                seed = Long.parseLong(theTokens[1]);
+                return "Message understood.  Seed " + seed + " from next init.";
+            }
+        } catch (RuntimeException ex) {
+            return "Could not handle message: " + message + " :: " + ex;
+        }
+
+        if (message.startsWith("what is your name?"))
+            return "my name is GarnetEnvironment, Java edition!";
+
+        return "GarnetEnvironment(Java) does not understand your message.";
+    }
+
+    public int getNumStates() {
+        return S;
+    }
+
+    public int getNumActions() {
+        return A;
+    }
+
+    public boolean isTerminal(int s) {
+        return terminal[s];
+    }
+
+    public double getMeanReward(int s, int a) {
+        return meanReward[s * A + a];
+    }
+
+    /**
+     * The successor states of s,a and their probabilities, recovered from the
+     * alias table, for solvers that need the true model.  Both arrays need
+     * room for B entries; the number of successors (B) is returned.
+     */
+    public int getTransitions(int s, int a, int[] states, double[] probabilities) {
+        int base = (s * A + a) * B;
+
+        for (int k = 0; k < B; k++) {
+            states[k] = successor[base + k];
+            probabilities[k] = 0;
+        }
+        // Column k keeps its own entry with probability keep[k] and gives the
+        // rest to its alias, each column being chosen with probability 1 / B
+        for (int k = 0; k < B; k++) {
+            probabilities[k] += keep[base + k] / (double)B;
+            probabilities[alias[base + k] - base] += (1 - keep[base + k]) / (double)B;
+        }
+
+        return B;
+    }
+
+    private void generate() {
+        S = numStates;
+        A = numActions;
+        B = branching;
+        noise = rewardNoise;
+
+        Random rand = new Random(seed);
+        int pairs = S * A;
+        successor = new int[pairs * B];
+        keep = new float[pairs * B];
+        alias = new int[pairs * B];
+        meanReward = new double[pairs];
+
+        int[] chosen = new int[B];
+        double[] p = new double[B];
+        int[] small = new int[B];
+        int[] large = new int[B];
+        int[] all = null;
+
+        for (int pair = 0; pair < pairs; pair++) {
+            int base = pair * B;
+
+            // B distinct successors, by rejection when B is small compared to S
+            // and by a partial shuffle otherwise
+            if (B * 4 <= S) {
+                for (int k = 0; k < B; k++) {
+                    int s;
+                    boolean repeated;
+                    do {
+                        s = rand.nextInt(S);
+                        repeated = false;
+                        for (int j = 0; j < k; j++)
+                            repeated |= chosen[j] == s;
+                    } while (repeated);
+                    chosen[k] = s;
+                }
+            } else {
+                if (all == null)
+                    all = new int[S];
+                for (int s = 0; s < S; s++)
+                    all[s] = s;
+                for (int k = 0; k < B; k++) {
+                    int j = k + rand.nextInt(S - k);
+                    int t = all[k];
+                    all[k] = all[j];
+                    all[j] = t;
+                    chosen[k] = all[k];
+                }
+            }
+
+            // Probabilities from the gaps between B - 1 sorted uniform cut points
+            for (int k = 0; k < B - 1; k++)
+                p[k] = rand.nextDouble();
+            Arrays.sort(p, 0, B - 1);
+            double last = 0;
+            for (int k = 0; k < B - 1; k++) {
+                double cut = p[k];
+                p[k] = cut - last;
+                last = cut;
+            }
+            p[B - 1] = 1 - last;
+
+            for (int k = 0; k < B; k++)
+                successor[base + k] = chosen[k];
+            buildAlias(base, p, small, large);
+
+            meanReward[pair] = uniformRewards ? rewardA + (rewardB - rewardA) * rand.nextDouble()
+                                              : rewardA + rewardB * rand.nextGaussian();
+        }
+
+        terminal = new boolean[S];
+        int numStarts = 0;
+        for (int s = 0; s < S; s++) {
+            terminal[s] = rand.nextDouble() < terminalFraction;
+            if (!terminal[s])
+                numStarts++;
+        }
+        if (numStarts == 0) {
+            terminal[rand.nextInt(S)] = false;
+            numStarts = 1;
+        }
+
+        startStates = new int[numStarts];
+        numStarts = 0;
+        for (int s = 0; s < S; s++)
+            if (!terminal[s])
+                startStates[numStarts++] = s;
+
+        rng = seed * 0x9E3779B97F4A7C15L + 0x2545F4914F6CDD1DL;
+        if (rng == 0)
+            rng = 1;
+        noiseGen = new Random(seed ^ 0x5DEECE66DL);
+    }
+
+    /* Vose's alias method: column k keeps entry k with probability keep[k]
+     * and otherwise gives alias[k], stored as the entry index of the alias.
+     */
+    private void buildAlias(int base, double[] p, int[] small, int[] large) {
+        double[] scaled = new double[B];
+        int numSmall = 0;
+        int numLarge = 0;
+
+        for (int k = 0; k < B; k++) {
+            scaled[k] = p[k] * B;
+            if (scaled[k] < 1)
+                small[numSmall++] = k;
+            else
+                large[numLarge++] = k;
+        }
+
+        while (numSmall > 0 && numLarge > 0) {
+            int l = small[--numSmall];
+            int g = large[--numLarge];
+
+            keep[base + l] = (float)scaled[l];
+            alias[base + l] = base + g;
+
+            scaled[g] = scaled[g] + scaled[l] - 1;
+            if (scaled[g] < 1)
+                small[numSmall++] = g;
+            else
+                large[numLarge++] = g;
+        }
+
+        // Whatever is left has probability 1 up to rounding
+        while (numLarge > 0) {
+            int g = large[--numLarge];
+            keep[base + g] = 1;
+            alias[base + g] = base + g;
+        }
+        while (numSmall > 0) {
+            int l = small[--numSmall];
+            keep[base + l] = 1;
+            alias[base + l] = base + l;
+        }
+    }
+
+    /* Draw the successor of a state-action pair */
+    private int sample(int pair) {
+        long r = nextRandom();
+        // The high 32 bits pick the column, the low 24 bits the coin
+        int k = (int)(((r >>> 32) * B) >>> 32);
+        int entry = pair * B + k;
+        float u = (r & 0xFFFFFF) * 0x1.0p-24f;
+
+        return successor[u < keep[entry] ? entry : alias[entry]];
+    }
+
+    // xorshift64*
+    private long nextRandom() {
+        rng ^= rng >>> 12;
+        rng ^= rng << 25;
+        rng ^= rng >>> 27;
+        return rng * 0x2545F4914F6CDD1DL;
+    }
+
+    /**
+     * This is a trick we can use to make the agent easily loadable.
+     * @param args
+     */
+    public static void main(String[] args) {
+        GarnetEnvironment theEnvironment = new GarnetEnvironment();
+        theEnvironment.env_message("copy-results on");
+        EnvironmentLoader theLoader = new EnvironmentLoader(theEnvironment);
+        theLoader.run();
+    }
+}
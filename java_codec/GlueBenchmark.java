@@ -0,0 +1,110 @@
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.util.AgentLoader;
+import org.rlcommunity.rlglue.codec.util.EnvironmentLoader;
+
+/**
+ * Measures the steps per second an agent and an environment get through an
+ * RL-Glue server.
+ *
+ * The agent and the environment run in this process on the stock
+ * AgentLoader and EnvironmentLoader threads, and the experiment in the main
+ * thread, as in RunMinesSarsaExperiment; all of them talk to the server over
+ * sockets. With 'java' a GlueServer is started in this process as well. With
+ * 'native' the server must already be running, e.g. core/rl_glue.exe, on
+ * RLGLUE_PORT or 4096. With 'shm' the agent and the environment run on
+ * ShmAgentLoader and ShmEnvironmentLoader threads instead, and LocalGlue
+ * reaches them through the shared memory proxies. With 'local' everything
+ * runs through LocalGlue, for the cost without any transport.
+ *
+ * Two rates are reported: with RL_episode, where the server drives the
+ * episode (two round trips per step), and with RL_step from the experiment
+ * (three round trips per step, two with 'shm').
+ *
+ * Usage: java GlueBenchmark [java|native|shm|local] [steps] [AgentClass] [EnvironmentClass]
+ * with defaults java, 200000, SampleSarsaAgent and SampleMinesEnvironment.
+ */
+public class GlueBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String server = args.length > 0 ? args[0] : "java";
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        String agentClass = args.length > 2 ? args[2] : "SampleSarsaAgent";
+        String envClass = args.length > 3 ? args[3] : "SampleMinesEnvironment";
+        AgentInterface agent = (AgentInterface)Class.forName(agentClass).getDeclaredConstructor().newInstance();
+        EnvironmentInterface env = (EnvironmentInterface)Class.forName(envClass).getDeclaredConstructor().newInstance();
+
+        ShmAgentProxy agentProxy = null;
+        ShmEnvironmentProxy envProxy = null;
+        if (server.equals("local")) {
+            RLGlue.setGlue(new LocalGlue(env, agent));
+        } else if (server.equals("shm")) {
+            agentProxy = new ShmAgentProxy();
+            envProxy = new ShmEnvironmentProxy();
+            Thread agentThread = new Thread(new ShmAgentLoader(agent));
+            Thread environmentThread = new Thread(new ShmEnvironmentLoader(env));
+            agentThread.setDaemon(true);
+            environmentThread.setDaemon(true);
+            agentThread.start();
+            environmentThread.start();
+            RLGlue.setGlue(new LocalGlue(envProxy, agentProxy));
+        } else {
+            if (server.equals("java")) {
+                Thread serverThread = new Thread(new GlueServer(GlueProtocol.port()));
+                serverThread.setDaemon(true);
+                serverThread.start();
+            }
+            Thread agentThread = new Thread(new AgentLoader(agent));
+            Thread environmentThread = new Thread(new EnvironmentLoader(env));
+            agentThread.setDaemon(true);
+            environmentThread.setDaemon(true);
+            agentThread.start();
+            environmentThread.start();
+        }
+
+        RLGlue.RL_init();
+
+        // Warm up, then time each way of stepping
+        runEpisodes(steps / 10);
+        runSteps(steps / 10);
+
+        long start = System.nanoTime();
+        long episodeSteps = runEpisodes(steps);
+        double episodeRate = episodeSteps / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        long stepSteps = runSteps(steps);
+        double stepRate = stepSteps / ((System.nanoTime() - start) / 1e9);
+
+        RLGlue.RL_cleanup();
+        if (agentProxy != null) {
+            agentProxy.close();
+            envProxy.close();
+        }
+
+        System.out.printf("%s server: %.0f steps/s with RL_episode, %.0f steps/s with RL_step%n", server, episodeRate,
+                          stepRate);
+        System.exit(0);
+    }
+
+    /* Run whole episodes until at least the given number of steps */
+    private static long runEpisodes(int steps) {
+        long done = 0;
+        while (done < steps) {
+            RLGlue.RL_episode(0);
+            done += RLGlue.RL_num_steps();
+        }
+        return done;
+    }
+
+    /* Take the given number of steps with RL_step, starting episodes as needed */
+    private static long runSteps(int steps) {
+        RLGlue.RL_start();
+        for (int i = 0; i < steps; i++)
+            if (RLGlue.RL_step().isTerminal())
+                RLGlue.RL_start();
+        return steps;
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One client of GlueServer: a non-blocking socket channel with a direct
+ * buffer for incoming messages and one for the outgoing message.
+ *
+ * The received bytes collect in the input buffer. Once hasMessage() is true,
+ * the first message can be read with the payload methods, which take offsets
+ * into its payload, until consume() drops it. An outgoing message is built
+ * with begin() and the append methods and written with send(). Payloads are
+ * copied between connections as raw bytes, without decoding them.
+ */
+final class GlueConnection {
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+
+    /* The connection type from the first message, 0 until then */
+    int type;
+    boolean closed;
+
+    // Both buffers are kept in fill mode
+    private ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    private ByteBuffer out = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+    GlueConnection(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * Read what the channel has without blocking, growing the input buffer
+     * for long messages.
+     * @return false at the end of the stream
+     * @throws IOException
+     */
+    boolean read() throws IOException {
+        while (true) {
+            if (in.position() >= GlueProtocol.HEADER_SIZE) {
+                int size = in.getInt(4);
+                if (size < 0)
+                    throw new IOException("Bad message size " + size);
+                if (in.position() >= GlueProtocol.HEADER_SIZE + size)
+                    return true;
+                if (GlueProtocol.HEADER_SIZE + size > in.capacity())
+                    in = grow(in, GlueProtocol.HEADER_SIZE + size);
+            }
+
+            int n = channel.read(in);
+            if (n < 0)
+                return false;
+            if (n == 0)
+                return true;
+        }
+    }
+
+    boolean hasMessage() {
+        return in.position() >= GlueProtocol.HEADER_SIZE &&
+               in.position() >= GlueProtocol.HEADER_SIZE + in.getInt(4);
+    }
+
+    /* The code of the received message */
+    int state() {
+        return in.getInt(0);
+    }
+
+    int payloadSize() {
+        return in.getInt(4);
+    }
+
+    int payloadInt(int offset) {
+        return in.getInt(GlueProtocol.HEADER_SIZE + offset);
+    }
+
+    double payloadDouble(int offset) {
+        return in.getDouble(GlueProtocol.HEADER_SIZE + offset);
+    }
+
+    /**
+     * Copy the payload of the received message into to, which is grown if
+     * needed, leaving its position after the payload.
+     * @param to
+     * @return the buffer holding the copy
+     */
+    ByteBuffer copyPayload(ByteBuffer to) {
+        to.clear();
+        if (payloadSize() > to.capacity())
+            to = ByteBuffer.allocateDirect(payloadSize());
+        copy(in, GlueProtocol.HEADER_SIZE, GlueProtocol.HEADER_SIZE + payloadSize(), to);
+        return to;
+    }
+
+    /* Drop the received message, keeping anything read after it */
+    void consume() {
+        int end = GlueProtocol.HEADER_SIZE + payloadSize();
+        in.flip();
+        in.position(end);
+        in.compact();
+    }
+
+    /* Start an outgoing message */
+    void begin(int state) {
+        out.clear();
+        out.putInt(state).putInt(0);
+    }
+
+    void appendInt(int value) {
+        reserve(4);
+        out.putInt(value);
+    }
+
+    void appendDouble(double value) {
+        reserve(8);
+        out.putDouble(value);
+    }
+
+    /* Append the payload of the message received by from, starting at offset */
+    void append(GlueConnection from, int offset) {
+        append(from.in, GlueProtocol.HEADER_SIZE + offset, GlueProtocol.HEADER_SIZE + from.payloadSize());
+    }
+
+    /* Append the bytes start .. end-1 of src */
+    void append(ByteBuffer src, int start, int end) {
+        reserve(end - start);
+        copy(src, start, end, out);
+    }
+
+    /**
+     * Write the outgoing message, or as much of it as the channel takes.
+     * @return true when all of it has been written
+     * @throws IOException
+     */
+    boolean send() throws IOException {
+        out.putInt(4, out.position() - GlueProtocol.HEADER_SIZE);
+        out.flip();
+        return flush();
+    }
+
+    /* Write more of a message that send() could not finish */
+    boolean flush() throws IOException {
+        channel.write(out);
+        if (out.hasRemaining())
+            return false;
+        out.clear();
+        return true;
+    }
+
+    void close() {
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    private void reserve(int bytes) {
+        if (out.remaining() < bytes)
+            out = grow(out, out.position() + bytes);
+    }
+
+    /* A buffer of at least the given capacity with the contents of buffer */
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(capacity, 2 * buffer.capacity()));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /* Put the bytes start .. end-1 of src into to, leaving src as it was */
+    private static void copy(ByteBuffer src, int start, int end, ByteBuffer to) {
+        int position = src.position();
+        int limit = src.limit();
+        src.limit(end);
+        src.position(start);
+        to.put(src);
+        src.limit(limit);
+        src.position(position);
+    }
+}
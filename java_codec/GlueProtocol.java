@@ -0,0 +1,62 @@
+/**
+ * The message codes and framing of the RL-Glue 3 network protocol, as spoken
+ * by core/rl_glue.exe and the codecs.
+ *
+ * Every message is a header of two big-endian ints, the message code and the
+ * size of the payload, followed by the payload. A new connection first sends
+ * a header with its connection type and no payload. In payloads, strings are
+ * sent as their length followed by their bytes; observations and actions as
+ * the number of ints, doubles and chars followed by the ints, the doubles and
+ * one byte per char; and the outcome of an environment step as the terminal
+ * flag (an int), the reward (a double) and the observation.
+ */
+public final class GlueProtocol {
+
+    public static final int DEFAULT_PORT = 4096;
+    public static final int HEADER_SIZE = 8;
+
+    public static final int kExperimentConnection = 1;
+    public static final int kAgentConnection = 2;
+    public static final int kEnvironmentConnection = 3;
+
+    public static final int kAgentInit = 4;
+    public static final int kAgentStart = 5;
+    public static final int kAgentStep = 6;
+    public static final int kAgentEnd = 7;
+    public static final int kAgentCleanup = 8;
+    public static final int kAgentMessage = 10;
+
+    public static final int kEnvInit = 11;
+    public static final int kEnvStart = 12;
+    public static final int kEnvStep = 13;
+    public static final int kEnvCleanup = 14;
+    public static final int kEnvMessage = 19;
+
+    public static final int kRLInit = 20;
+    public static final int kRLStart = 21;
+    public static final int kRLStep = 22;
+    public static final int kRLCleanup = 23;
+    public static final int kRLReturn = 24;
+    public static final int kRLNumSteps = 25;
+    public static final int kRLNumEpisodes = 26;
+    public static final int kRLEpisode = 27;
+    public static final int kRLAgentMessage = 33;
+    public static final int kRLEnvMessage = 34;
+
+    public static final int kRLTerm = 35;
+
+    public static final int kRLEnvStart = 36;
+    public static final int kRLEnvStep = 37;
+    public static final int kRLAgentStart = 38;
+    public static final int kRLAgentStep = 39;
+    public static final int kRLAgentEnd = 40;
+
+    private GlueProtocol() {
+    }
+
+    /* The port in RLGLUE_PORT, as for rl_glue.exe, or the default one */
+    public static int port() {
+        String port = System.getenv("RLGLUE_PORT");
+        return port == null ? DEFAULT_PORT : Integer.parseInt(port.trim());
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * An RL-Glue server in plain Java, to use instead of core/rl_glue.exe on any
+ * platform. It speaks the same wire protocol (see GlueProtocol), so the stock
+ * AgentLoader, EnvironmentLoader and network experiments of any codec connect
+ * to it unchanged.
+ *
+ * One thread serves all connections through a selector. The experiment's
+ * requests are handled once an agent and an environment are connected, as by
+ * rl_glue.exe, with the same bookkeeping of steps, episodes and return.
+ * Observations and actions are passed between the clients as raw bytes in
+ * direct buffers; only the reward and terminal flag of environment steps are
+ * decoded. Sockets are set to TCP_NODELAY, as every message waits for an
+ * answer.
+ *
+ * The server stops when the experiment sends kRLTerm or disconnects, and
+ * then sends kRLTerm to the agent and the environment.
+ *
+ * Usage: java GlueServer [port]
+ * where the port defaults to RLGLUE_PORT, or 4096.
+ */
+public class GlueServer implements Runnable {
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final int port;
+
+    private GlueConnection experiment;
+    private GlueConnection agent;
+    private GlueConnection environment;
+    private boolean experimentGone;
+
+    // The bookkeeping of rl_glue.exe
+    private ByteBuffer lastAction = ByteBuffer.allocateDirect(1 << 10);
+    private int numSteps;
+    private int numEpisodes;
+    private double totalReward;
+
+    /**
+     * Open the server socket, so that clients can connect as soon as this
+     * returns.
+     * @param port
+     * @throws IOException
+     */
+    public GlueServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.port = server.socket().getLocalPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : GlueProtocol.port();
+        new GlueServer(port).run();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void run() {
+        System.out.println("RL-Glue is listening for connections on port=" + port);
+        try {
+            while (true) {
+                while (experiment == null || agent == null || environment == null || !experiment.hasMessage()) {
+                    if (experimentGone)
+                        return;
+                    poll();
+                }
+                if (!handle())
+                    return;
+            }
+        } catch (IOException ex) {
+            System.err.println("RL-Glue :: " + ex.getMessage());
+        } finally {
+            terminate();
+        }
+    }
+
+    /* Handle the experiment's request; false for kRLTerm */
+    private boolean handle() throws IOException {
+        GlueConnection exp = experiment;
+        int state = exp.state();
+
+        exp.begin(state);
+        switch (state) {
+        case GlueProtocol.kRLInit:
+            init();
+            break;
+        case GlueProtocol.kRLStart:
+            start(exp);
+            break;
+        case GlueProtocol.kRLStep:
+            step(exp);
+            break;
+        case GlueProtocol.kRLEpisode:
+            exp.appendInt(episode(exp.payloadInt(0)) ? 1 : 0);
+            break;
+        case GlueProtocol.kRLCleanup:
+            environment.begin(GlueProtocol.kEnvCleanup);
+            call(environment, GlueProtocol.kEnvCleanup).consume();
+            agent.begin(GlueProtocol.kAgentCleanup);
+            call(agent, GlueProtocol.kAgentCleanup).consume();
+            break;
+        case GlueProtocol.kRLReturn:
+            exp.appendDouble(totalReward);
+            break;
+        case GlueProtocol.kRLNumSteps:
+            exp.appendInt(numSteps);
+            break;
+        case GlueProtocol.kRLNumEpisodes:
+            exp.appendInt(numEpisodes);
+            break;
+        case GlueProtocol.kRLAgentMessage:
+            forward(agent, GlueProtocol.kAgentMessage);
+            break;
+        case GlueProtocol.kRLEnvMessage:
+            forward(environment, GlueProtocol.kEnvMessage);
+            break;
+        case GlueProtocol.kRLEnvStart:
+            numSteps = 1;
+            totalReward = 0;
+            forward(environment, GlueProtocol.kEnvStart);
+            break;
+        case GlueProtocol.kRLEnvStep:
+            environment.begin(GlueProtocol.kEnvStep);
+            environment.append(exp, 0);
+            call(environment, GlueProtocol.kEnvStep);
+            count(environment.payloadInt(0) != 0, environment.payloadDouble(4));
+            exp.append(environment, 0);
+            environment.consume();
+            break;
+        case GlueProtocol.kRLAgentStart:
+            lastAction = forward(agent, GlueProtocol.kAgentStart, lastAction);
+            break;
+        case GlueProtocol.kRLAgentStep:
+            lastAction = forward(agent, GlueProtocol.kAgentStep, lastAction);
+            break;
+        case GlueProtocol.kRLAgentEnd:
+            forward(agent, GlueProtocol.kAgentEnd);
+            break;
+        case GlueProtocol.kRLTerm:
+            exp.consume();
+            return false;
+        default:
+            throw new IOException("Unknown message: " + state);
+        }
+
+        exp.consume();
+        send(exp);
+        return true;
+    }
+
+    private void init() throws IOException {
+        environment.begin(GlueProtocol.kEnvInit);
+        call(environment, GlueProtocol.kEnvInit);
+
+        // The task spec goes to the agent and back to the experiment
+        agent.begin(GlueProtocol.kAgentInit);
+        agent.append(environment, 0);
+        experiment.append(environment, 0);
+        environment.consume();
+        call(agent, GlueProtocol.kAgentInit).consume();
+
+        totalReward = 0;
+        numSteps = 0;
+        numEpisodes = 0;
+    }
+
+    /**
+     * Start an episode: env_start, then agent_start with its observation.
+     * @param reply if not null, gets the observation and the action appended
+     * @throws IOException
+     */
+    private void start(GlueConnection reply) throws IOException {
+        numSteps = 1;
+        totalReward = 0;
+
+        environment.begin(GlueProtocol.kEnvStart);
+        call(environment, GlueProtocol.kEnvStart);
+
+        agent.begin(GlueProtocol.kAgentStart);
+        agent.append(environment, 0);
+        if (reply != null)
+            reply.append(environment, 0);
+        environment.consume();
+
+        call(agent, GlueProtocol.kAgentStart);
+        lastAction = agent.copyPayload(lastAction);
+        agent.consume();
+
+        if (reply != null)
+            reply.append(lastAction, 0, lastAction.position());
+    }
+
+    /**
+     * Take a step: env_step with the last action, then agent_step or, at the
+     * end of the episode, agent_end.
+     * @param reply if not null, gets the terminal flag, the reward, the
+     * observation and the action appended
+     * @return whether the episode ended
+     * @throws IOException
+     */
+    private boolean step(GlueConnection reply) throws IOException {
+        environment.begin(GlueProtocol.kEnvStep);
+        environment.append(lastAction, 0, lastAction.position());
+        call(environment, GlueProtocol.kEnvStep);
+
+        boolean terminal = environment.payloadInt(0) != 0;
+        double reward = environment.payloadDouble(4);
+        count(terminal, reward);
+        if (reply != null)
+            reply.append(environment, 0);
+
+        if (terminal) {
+            environment.consume();
+            agent.begin(GlueProtocol.kAgentEnd);
+            agent.appendDouble(reward);
+            call(agent, GlueProtocol.kAgentEnd).consume();
+        } else {
+            // The reward and the observation, as the env sent them
+            agent.begin(GlueProtocol.kAgentStep);
+            agent.append(environment, 4);
+            environment.consume();
+            call(agent, GlueProtocol.kAgentStep);
+            lastAction = agent.copyPayload(lastAction);
+            agent.consume();
+        }
+
+        // At the end of an episode this is still the action before
+        if (reply != null)
+            reply.append(lastAction, 0, lastAction.position());
+        return terminal;
+    }
+
+    /* Run an episode of at most maxSteps steps, or no limit if 0 */
+    private boolean episode(int maxSteps) throws IOException {
+        start(null);
+        boolean terminal = false;
+        while (!terminal && (maxSteps == 0 || numSteps < maxSteps))
+            terminal = step(null);
+        return terminal;
+    }
+
+    /* As rl_glue.exe, the step that ends an episode is not counted */
+    private void count(boolean terminal, double reward) {
+        totalReward += reward;
+        if (terminal)
+            numEpisodes++;
+        else
+            numSteps++;
+    }
+
+    /* Pass the experiment's payload to a client and its answer back */
+    private void forward(GlueConnection client, int state) throws IOException {
+        forward(client, state, null);
+    }
+
+    /**
+     * Pass the experiment's payload to a client and its answer back, also
+     * copying the answer into capture before it is consumed.
+     * @param client
+     * @param state
+     * @param capture null for no copy
+     * @return the buffer holding the copy, capture or a larger one
+     * @throws IOException
+     */
+    private ByteBuffer forward(GlueConnection client, int state, ByteBuffer capture) throws IOException {
+        client.begin(state);
+        client.append(experiment, 0);
+        call(client, state);
+        experiment.append(client, 0);
+        if (capture != null)
+            capture = client.copyPayload(capture);
+        client.consume();
+        return capture;
+    }
+
+    /**
+     * Send the message built on client and wait for its answer, which the
+     * caller must consume.
+     * @param client
+     * @param state the code the answer must have
+     * @return client
+     * @throws IOException
+     */
+    private GlueConnection call(GlueConnection client, int state) throws IOException {
+        send(client);
+        while (!client.hasMessage()) {
+            if (client.closed)
+                throw new IOException(name(client.type) + " disconnected");
+            poll();
+        }
+        if (client.state() != state)
+            throw new IOException("Expected message " + state + " from the " + name(client.type) + ", got " +
+                                  client.state());
+        return client;
+    }
+
+    private void send(GlueConnection client) throws IOException {
+        if (client.send())
+            return;
+
+        // The socket buffer is full, wait until the client reads
+        client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        while (!client.flush()) {
+            if (client.closed)
+                throw new IOException(name(client.type) + " disconnected");
+            poll();
+        }
+        client.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /* Wait for the next events and handle connections, reads and disconnects */
+    private void poll() throws IOException {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid())
+                continue;
+
+            if (key.isAcceptable()) {
+                accept();
+            } else if (key.isReadable()) {
+                GlueConnection connection = (GlueConnection)key.attachment();
+                if (!connection.read())
+                    disconnected(connection);
+                else if (connection.type == 0 && connection.hasMessage())
+                    connected(connection);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new GlueConnection(channel, key));
+    }
+
+    /* Handle the first message of a connection, which gives its type */
+    private void connected(GlueConnection connection) {
+        int type = connection.state();
+        connection.consume();
+
+        if (type == GlueProtocol.kExperimentConnection && experiment == null)
+            experiment = connection;
+        else if (type == GlueProtocol.kAgentConnection && agent == null)
+            agent = connection;
+        else if (type == GlueProtocol.kEnvironmentConnection && environment == null)
+            environment = connection;
+        else {
+            System.err.println("RL-Glue :: Refused a connection of type " + type);
+            connection.close();
+            return;
+        }
+
+        connection.type = type;
+        System.out.println("\tRL-Glue :: " + name(type) + " connected.");
+    }
+
+    private void disconnected(GlueConnection connection) {
+        connection.close();
+        if (connection == experiment) {
+            experiment = null;
+            experimentGone = true;
+        } else if (connection == agent)
+            agent = null;
+        else if (connection == environment)
+            environment = null;
+        if (connection.type != 0)
+            System.out.println("\tRL-Glue :: " + name(connection.type) + " disconnected.");
+    }
+
+    /* Tell the agent and the environment to quit, and close everything */
+    private void terminate() {
+        GlueConnection[] clients = {agent, environment};
+        for (GlueConnection client : clients) {
+            if (client == null)
+                continue;
+            try {
+                client.begin(GlueProtocol.kRLTerm);
+                client.send();
+            } catch (IOException ex) {
+            }
+            client.close();
+        }
+        if (experiment != null)
+            experiment.close();
+
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    private static String name(int type) {
+        switch (type) {
+        case GlueProtocol.kExperimentConnection:
+            return "Experiment";
+        case GlueProtocol.kAgentConnection:
+            return "Agent";
+        case GlueProtocol.kEnvironmentConnection:
+            return "Environment";
+        default:
+            return "Client";
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Generates Mines maps of any size, and stores them in a compact file.
+ *
+ * A generated map has a wall of obstacles around it. Every inner cell is an
+ * obstacle, a mine or a goal with the given probabilities, and free
+ * otherwise. If no goal was drawn, one is put on a random inner cell. Free
+ * cells from which no goal can be reached become obstacles, so an episode can
+ * finish from every start state. The same arguments always give the same map.
+ *
+ * A map file starts with a header (magic "RLGW", version, rows, cols). The
+ * cells follow row by row as the WORLD_* values packed 2 bits each, four
+ * cells per byte with the first cell in the low bits. A CRC32 of everything
+ * before it ends the file. A map of 10^7 cells takes 2.5 MB.
+ *
+ * Maps are limited to MAX_CELLS cells, so that WorldDescription can index
+ * its transition table with an int.
+ *
+ * Usage: java GridWorldGenerator ROWS COLS FILE [OBSTACLES MINES GOALS [SEED]]
+ */
+public class GridWorldGenerator {
+
+    public static final int MAGIC = 0x524C4757; // "RLGW"
+    public static final int VERSION = 1;
+
+    public static final int MAX_CELLS = Integer.MAX_VALUE / WorldDescription.NUM_ACTIONS;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: java GridWorldGenerator ROWS COLS FILE [OBSTACLES MINES GOALS [SEED]]");
+            System.exit(1);
+        }
+
+        int rows = Integer.parseInt(args[0]);
+        int cols = Integer.parseInt(args[1]);
+        double obstacles = args.length > 3 ? Double.parseDouble(args[3]) : 0.10;
+        double mines = args.length > 4 ? Double.parseDouble(args[4]) : 0.04;
+        double goals = args.length > 5 ? Double.parseDouble(args[5]) : 0.0;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : 0;
+
+        long start = System.nanoTime();
+        int[][] map = generate(rows, cols, obstacles, mines, goals, seed);
+        long generated = System.nanoTime();
+        save(map, new File(args[2]));
+        long saved = System.nanoTime();
+
+        int[] counts = new int[4];
+        for (int[] row : map)
+            for (int cell : row)
+                counts[cell]++;
+
+        System.out.printf("%dx%d map: %d free, %d obstacles, %d mines, %d goals%n", rows, cols,
+                          counts[SampleMinesEnvironment.WORLD_FREE], counts[SampleMinesEnvironment.WORLD_OBSTACLE],
+                          counts[SampleMinesEnvironment.WORLD_MINE], counts[SampleMinesEnvironment.WORLD_GOAL]);
+        System.out.printf("generated in %.0f ms, wrote %d bytes to %s in %.0f ms%n", (generated - start) / 1e6,
+                          new File(args[2]).length(), args[2], (saved - generated) / 1e6);
+    }
+
+    /**
+     * Generate a map with rows x cols cells, including the outer wall.
+     * @param obstacles probability of an inner cell being an obstacle
+     * @param mines probability of an inner cell being a mine
+     * @param goals probability of an inner cell being a goal
+     * @param seed
+     * @return
+     */
+    public static int[][] generate(int rows, int cols, double obstacles, double mines, double goals, long seed) {
+        checkSize(rows, cols);
+        if (obstacles < 0 || mines < 0 || goals < 0 || obstacles + mines + goals > 1)
+            throw new IllegalArgumentException("Densities must be non-negative and add up to at most 1");
+
+        Random rand = new Random(seed);
+        int[][] map = new int[rows][cols];
+        boolean hasGoal = false;
+
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (r == 0 || c == 0 || r == rows - 1 || c == cols - 1)
+                    map[r][c] = SampleMinesEnvironment.WORLD_OBSTACLE;
+                else {
+                    double x = rand.nextDouble();
+                    if (x < obstacles)
+                        map[r][c] = SampleMinesEnvironment.WORLD_OBSTACLE;
+                    else if (x < obstacles + mines)
+                        map[r][c] = SampleMinesEnvironment.WORLD_MINE;
+                    else if (x < obstacles + mines + goals) {
+                        map[r][c] = SampleMinesEnvironment.WORLD_GOAL;
+                        hasGoal = true;
+                    }
+                }
+            }
+        }
+
+        if (!hasGoal)
+            map[1 + rand.nextInt(rows - 2)][1 + rand.nextInt(cols - 2)] = SampleMinesEnvironment.WORLD_GOAL;
+
+        removeUnreachable(map);
+        return map;
+    }
+
+    /* Turn the free cells from which no goal can be reached into obstacles */
+    private static void removeUnreachable(int[][] map) {
+        int rows = map.length;
+        int cols = map[0].length;
+
+        // Breadth first search over the free cells from all goals at once, with
+        // cells numbered r * cols + c. Every cell enters the queue at most once.
+        boolean[] reached = new boolean[rows * cols];
+        int[] queue = new int[rows * cols];
+        int head = 0;
+        int tail = 0;
+
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (map[r][c] == SampleMinesEnvironment.WORLD_GOAL) {
+                    reached[r * cols + c] = true;
+                    queue[tail++] = r * cols + c;
+                }
+            }
+        }
+
+        int[] moves = {cols, -cols, 1, -1};
+        while (head < tail) {
+            int cell = queue[head++];
+            for (int m : moves) {
+                // The outer wall keeps every neighbour of an inner cell on the map
+                int n = cell + m;
+                if (!reached[n] && map[n / cols][n % cols] == SampleMinesEnvironment.WORLD_FREE) {
+                    reached[n] = true;
+                    queue[tail++] = n;
+                }
+            }
+        }
+
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                if (map[r][c] == SampleMinesEnvironment.WORLD_FREE && !reached[r * cols + c])
+                    map[r][c] = SampleMinesEnvironment.WORLD_OBSTACLE;
+    }
+
+    public static void save(int[][] map, File file) throws IOException {
+        int rows = map.length;
+        int cols = map[0].length;
+
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16),
+                                                              new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(cols);
+
+            int packed = 0;
+            int n = 0;
+            for (int[] row : map) {
+                if (row.length != cols)
+                    throw new IllegalArgumentException("Map rows must all have the same length");
+                for (int cell : row) {
+                    if (cell < 0 || cell > 3)
+                        throw new IllegalArgumentException("Not a map cell value: " + cell);
+                    packed |= cell << (2 * n);
+                    if (++n == 4) {
+                        out.write(packed);
+                        packed = 0;
+                        n = 0;
+                    }
+                }
+            }
+            if (n > 0)
+                out.write(packed);
+
+            out.writeLong(checked.getChecksum().getValue());
+        } finally {
+            out.close();
+        }
+    }
+
+    public static int[][] load(File file) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16),
+                                                            new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a map file: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported map file version " + version);
+
+            int rows = in.readInt();
+            int cols = in.readInt();
+            try {
+                checkSize(rows, cols);
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Bad map file " + file + ": " + ex.getMessage());
+            }
+
+            int[][] map = new int[rows][cols];
+            int packed = 0;
+            int n = 4;
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    if (n == 4) {
+                        packed = in.readUnsignedByte();
+                        n = 0;
+                    }
+                    map[r][c] = (packed >>> (2 * n++)) & 3;
+                }
+            }
+
+            long crc = checked.getChecksum().getValue();
+            if (in.readLong() != crc)
+                throw new IOException("Map file checksum mismatch: " + file);
+
+            return map;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkSize(int rows, int cols) {
+        if (rows < 3 || cols < 3)
+            throw new IllegalArgumentException("A map needs at least 3x3 cells, not " + rows + "x" + cols);
+        if ((long)rows * cols > MAX_CELLS)
+            throw new IllegalArgumentException("A map can have at most " + MAX_CELLS + " cells, not " +
+                                               (long)rows * cols);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * QTable backed by a double[numActions][numStates] array on the heap.
+ */
+public class HeapQTable implements QTable {
+
+    private final double[][] values;
+
+    public HeapQTable(int numActions, int numStates) {
+        this(new double[numActions][numStates]);
+    }
+
+    public HeapQTable(double[][] values) {
+        this.values = values;
+    }
+
+    public int numActions() {
+        return values.length;
+    }
+
+    public int numStates() {
+        return values.length > 0 ? values[0].length : 0;
+    }
+
+    public double get(int action, int state) {
+        return values[action][state];
+    }
+
+    public void set(int action, int state, double value) {
+        values[action][state] = value;
+    }
+
+    public int maxAction(int state) {
+        int maxIndex = 0;
+        for (int a = 1; a < values.length; a++)
+            if (values[a][state] > values[maxIndex][state])
+                maxIndex = a;
+
+        return maxIndex;
+    }
+
+    public void read(int action, int state, double[] dst, int offset, int count) {
+        System.arraycopy(values[action], state, dst, offset, count);
+    }
+
+    public void write(int action, int state, double[] src, int offset, int count) {
+        System.arraycopy(src, offset, values[action], state, count);
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
+
+/**
+ * Measures how well SarsaHistoryAgent.State spreads over the buckets of a
+ * HashMap, compared to the old hash that simply summed all ints of the history.
+ *
+ * For every history length 0-4 a set of distinct random histories over a
+ * Mines-sized problem (108 observations, 4 actions) is generated. For each hash
+ * the benchmark reports the number of distinct hash codes, the number of
+ * occupied buckets, the longest bucket chain, the average chain length seen by
+ * a successful lookup and the average time of Map.get.
+ *
+ * Usage: java HistoryHashBenchmark [numObservations] [numActions] [historiesPerLength]
+ */
+public class HistoryHashBenchmark {
+
+    private static final int LOOKUPS = 200000;
+
+    private final int numObservations;
+    private final int numActions;
+    private final Random rand = new Random(0);
+
+    public HistoryHashBenchmark(int numObservations, int numActions) {
+        this.numObservations = numObservations;
+        this.numActions = numActions;
+    }
+
+    /* The hash SarsaHistoryAgent.State used before, kept here as a baseline. */
+    private static class SumKey {
+        private final SarsaHistoryAgent.State state;
+
+        public SumKey(SarsaHistoryAgent.State state) {
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object x) {
+            return x instanceof SumKey && state.equals(((SumKey)x).state);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = intSum(state.observations[0]);
+
+            for (int i = 0; i < state.length; i++) {
+                hash += intSum(state.actions[i]);
+                hash += intSum(state.observations[i + 1]);
+            }
+
+            return hash;
+        }
+
+        private static int intSum(RL_abstract_type x) {
+            int sum = 0;
+
+            for (int i = 0; i < x.getNumInts(); i++)
+                sum += x.getInt(i);
+
+            return sum;
+        }
+    }
+
+    private SarsaHistoryAgent.State randomState(int length) {
+        SarsaHistoryAgent.State s = new SarsaHistoryAgent.State(length);
+
+        s.observations[0] = observation(rand.nextInt(numObservations));
+        for (int i = 0; i < length; i++) {
+            s.actions[i] = action(rand.nextInt(numActions));
+            s.observations[i + 1] = observation(rand.nextInt(numObservations));
+        }
+
+        return s;
+    }
+
+    private Observation observation(int value) {
+        Observation o = new Observation(1, 0, 0);
+        o.setInt(0, value);
+        return o;
+    }
+
+    private Action action(int value) {
+        Action a = new Action(1, 0, 0);
+        a.setInt(0, value);
+        return a;
+    }
+
+    /* Generate up to n distinct histories of the given length */
+    private List<SarsaHistoryAgent.State> distinctStates(int length, int n) {
+        double possible = numObservations * Math.pow((double)numActions * numObservations, length);
+        int target = (int)Math.min(n, possible);
+
+        Set<SumKey> seen = new HashSet<SumKey>();
+        List<SarsaHistoryAgent.State> states = new ArrayList<SarsaHistoryAgent.State>();
+
+        // Enumerate exhaustively when the whole space is small, sample otherwise
+        if (possible <= n) {
+            for (int i = 0; i < target; i++)
+                states.add(decodeState(length, i));
+            return states;
+        }
+
+        while (states.size() < target) {
+            SarsaHistoryAgent.State s = randomState(length);
+            if (seen.add(new SumKey(s)))
+                states.add(s);
+        }
+
+        return states;
+    }
+
+    private SarsaHistoryAgent.State decodeState(int length, int index) {
+        SarsaHistoryAgent.State s = new SarsaHistoryAgent.State(length);
+
+        for (int i = length; i > 0; i--) {
+            s.observations[i] = observation(index % numObservations);
+            index /= numObservations;
+            s.actions[i - 1] = action(index % numActions);
+            index /= numActions;
+        }
+        s.observations[0] = observation(index);
+
+        return s;
+    }
+
+    /* Mirrors the bucket selection of java.util.HashMap */
+    private static int bucket(int hashCode, int tableSize) {
+        return (hashCode ^ (hashCode >>> 16)) & (tableSize - 1);
+    }
+
+    private static int tableSize(int entries) {
+        int size = 16;
+        while (size * 0.75 < entries)
+            size <<= 1;
+
+        return size;
+    }
+
+    private void report(String name, List<?> keys) {
+        int tableSize = tableSize(keys.size());
+        int[] chains = new int[tableSize];
+        Set<Integer> codes = new HashSet<Integer>();
+
+        for (Object key : keys) {
+            int h = key.hashCode();
+            codes.add(h);
+            chains[bucket(h, tableSize)]++;
+        }
+
+        int occupied = 0, longest = 0;
+        long probes = 0;
+        for (int c : chains) {
+            if (c > 0)
+                occupied++;
+            longest = Math.max(longest, c);
+            probes += (long)c * (c + 1) / 2;
+        }
+
+        Map<Object, double[]> map = new HashMap<Object, double[]>();
+        for (Object key : keys)
+            map.put(key, new double[numActions]);
+
+        // Warm up once, then time repeated lookups of every key
+        long sink = 0;
+        for (Object key : keys)
+            sink += map.get(key).length;
+
+        int rounds = Math.max(1, LOOKUPS / keys.size());
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++)
+            for (Object key : keys)
+                sink += map.get(key).length;
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("  %-6s %9d %9d %9d %7d %9.2f %11.1f%s\n",
+                          name, keys.size(), codes.size(), occupied, longest,
+                          (double)probes / keys.size(),
+                          (double)elapsed / ((long)rounds * keys.size()),
+                          sink == 0 ? "!" : "");
+    }
+
+    public void run(int historiesPerLength) {
+        System.out.printf("History hash benchmark: %d observations, %d actions\n", numObservations, numActions);
+
+        for (int length = 0; length <= 4; length++) {
+            List<SarsaHistoryAgent.State> states = distinctStates(length, historiesPerLength);
+            List<SumKey> sumKeys = new ArrayList<SumKey>();
+            for (SarsaHistoryAgent.State s : states)
+                sumKeys.add(new SumKey(s));
+
+            System.out.printf("\nHistory length %d\n", length);
+            System.out.printf("  %-6s %9s %9s %9s %7s %9s %11s\n",
+                              "hash", "keys", "codes", "buckets", "longest", "probes", "ns/lookup");
+            report("sum", sumKeys);
+            report("mixed", states);
+        }
+    }
+
+    public static void main(String[] args) {
+        int numObservations = args.length > 0 ? Integer.parseInt(args[0]) : 108;
+        int numActions      = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int histories       = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+
+        new HistoryHashBenchmark(numObservations, numActions).run(histories);
+    }
+}
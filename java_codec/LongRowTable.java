@@ -0,0 +1,370 @@
+import java.util.Random;
+
+/**
+ * Open addressing hash table from long keys to rows of doubles.
+ *
+ * All rows live in one primitive slab: row r occupies the entries
+ * values()[r * width() .. (r + 1) * width() - 1]. A lookup is a single probe
+ * sequence over a long[] that either finds the key or claims an empty slot and
+ * hands out a row filled with the default value, so there are no boxed keys,
+ * no entry objects and no separate containsKey/put/get round trips.
+ *
+ * An unbounded table never removes rows, so row indices stay valid for the
+ * lifetime of the table. The slab may be reallocated when it grows, so callers
+ * must fetch values() again after getOrInsert.
+ *
+ * A bounded table allocates its slab for a fixed number of rows up front. Once
+ * all rows are used, inserting a new key evicts the row chosen by the eviction
+ * policy, resets it to the default value and hands it to the new key. The
+ * pinned row (if any) is never evicted, which lets a caller hold on to one row
+ * across a lookup of another key.
+ */
+public class LongRowTable {
+
+    public enum EvictionPolicy {
+        // Evict the row that was looked up least recently
+        LRU,
+        // Evict the row that was looked up least often (sampled)
+        LFU,
+        // Evict the row with the smallest number of visit() calls (sampled)
+        VISITS
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Number of rows inspected when choosing an LFU or VISITS victim
+    private static final int EVICTION_SAMPLES = 8;
+
+    private final int width;
+    private final double defaultValue;
+
+    // keys[i] is only meaningful if slots[i] != 0
+    private long[] keys;
+
+    // slots[i] is the row index + 1 of the key in slot i, 0 marks an empty slot
+    private int[] slots;
+    private int mask;
+
+    private double[] values;
+    private int size;
+
+    // Maximum number of rows, 0 if the table is unbounded
+    private final int maxRows;
+    private final EvictionPolicy policy;
+    private int pinnedRow = -1;
+
+    // Per-row bookkeeping of a bounded table
+    private long[] rowKeys;
+    private int[] counts;
+    private int[] prev, next;
+    private int head = -1, tail = -1;
+    private Random rand;
+
+    private long hits, misses, evictions;
+
+    // True if the last getOrInsert handed out a new row
+    private boolean inserted;
+
+    public LongRowTable(int width, double defaultValue) {
+        this(width, defaultValue, MIN_CAPACITY);
+    }
+
+    public LongRowTable(int width, double defaultValue, int expectedRows) {
+        this.width = width;
+        this.defaultValue = defaultValue;
+        this.maxRows = 0;
+        this.policy = null;
+
+        allocateSlots(expectedRows);
+        values = new double[Math.max(expectedRows, 1) * width];
+    }
+
+    public LongRowTable(int width, double defaultValue, int maxRows, EvictionPolicy policy) {
+        if (maxRows < 1)
+            throw new IllegalArgumentException("A bounded LongRowTable needs at least one row");
+
+        this.width = width;
+        this.defaultValue = defaultValue;
+        this.maxRows = maxRows;
+        this.policy = policy;
+
+        long length = (long)maxRows * width;
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("A bounded LongRowTable cannot hold " + maxRows + " rows of width " + width);
+
+        allocateSlots(maxRows);
+        values = new double[(int)length];
+        rowKeys = new long[maxRows];
+
+        if (policy == EvictionPolicy.LRU) {
+            prev = new int[maxRows];
+            next = new int[maxRows];
+        } else {
+            counts = new int[maxRows];
+            rand = new Random(0);
+        }
+    }
+
+    /* Return the row of the given key, handing out a row with default values
+     * if the key is not in the table.
+     */
+    public int getOrInsert(long key) {
+        int i = (int)mix(key) & mask;
+
+        while (slots[i] != 0) {
+            if (keys[i] == key) {
+                hits++;
+                int row = slots[i] - 1;
+                if (maxRows > 0)
+                    touch(row);
+                inserted = false;
+                return row;
+            }
+            i = (i + 1) & mask;
+        }
+
+        misses++;
+        inserted = true;
+
+        int row;
+        if (maxRows > 0 && size == maxRows) {
+            row = victim();
+            evict(row);
+            evictions++;
+
+            // Removing the victim may have shifted keys, so probe again
+            i = (int)mix(key) & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+        } else {
+            row = size++;
+            ensureRows(size);
+        }
+
+        keys[i] = key;
+        slots[i] = row + 1;
+        reset(row);
+
+        if (maxRows > 0) {
+            rowKeys[row] = key;
+            if (policy == EvictionPolicy.LRU)
+                append(row);
+            else
+                counts[row] = policy == EvictionPolicy.LFU ? 1 : 0;
+        } else if (2 * size > slots.length) {
+            // Keep the load factor at or below one half so probe sequences stay short
+            rehash(slots.length << 1);
+        }
+
+        return row;
+    }
+
+    /* Return the row of the given key, or -1 if it is not in the table */
+    public int get(long key) {
+        int i = (int)mix(key) & mask;
+
+        while (slots[i] != 0) {
+            if (keys[i] == key)
+                return slots[i] - 1;
+            i = (i + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /* Whether the last getOrInsert added its key, rather than finding it */
+    public boolean inserted() {
+        return inserted;
+    }
+
+    /* Fill a row with the default value */
+    public void reset(int row) {
+        int offset = row * width;
+        for (int j = 0; j < width; j++)
+            values[offset + j] = defaultValue;
+    }
+
+    /* Record that the values of a row have been updated. Only used by the
+     * VISITS eviction policy.
+     */
+    public void visit(int row) {
+        if (policy == EvictionPolicy.VISITS && counts[row] < Integer.MAX_VALUE)
+            counts[row]++;
+    }
+
+    /* Protect a row from eviction, -1 to clear */
+    public void pin(int row) {
+        pinnedRow = row;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int maxRows() {
+        return maxRows;
+    }
+
+    public EvictionPolicy policy() {
+        return policy;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public double[] values() {
+        return values;
+    }
+
+    public int offset(int row) {
+        return row * width;
+    }
+
+    private void touch(int row) {
+        if (policy == EvictionPolicy.LRU) {
+            if (row != tail) {
+                unlink(row);
+                append(row);
+            }
+        } else if (policy == EvictionPolicy.LFU && counts[row] < Integer.MAX_VALUE) {
+            counts[row]++;
+        }
+    }
+
+    /* Choose the row to evict according to the policy, never the pinned row */
+    private int victim() {
+        if (policy == EvictionPolicy.LRU)
+            return head != pinnedRow || size == 1 ? head : next[head];
+
+        int best = -1;
+        for (int k = 0; k < EVICTION_SAMPLES; k++) {
+            int row = rand.nextInt(size);
+            if (row == pinnedRow && size > 1)
+                continue;
+            if (best < 0 || counts[row] < counts[best])
+                best = row;
+        }
+
+        return best >= 0 ? best : (pinnedRow + 1) % size;
+    }
+
+    private void evict(int row) {
+        if (policy == EvictionPolicy.LRU)
+            unlink(row);
+
+        // Find the slot of the victim and close the gap it leaves behind
+        int i = (int)mix(rowKeys[row]) & mask;
+        while (slots[i] != row + 1)
+            i = (i + 1) & mask;
+
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (slots[j] == 0)
+                break;
+
+            // Move the key at j into the gap unless its home slot lies cyclically in (i, j]
+            int home = (int)mix(keys[j]) & mask;
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!stays) {
+                keys[i] = keys[j];
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = 0;
+    }
+
+    private void unlink(int row) {
+        if (prev[row] >= 0)
+            next[prev[row]] = next[row];
+        else
+            head = next[row];
+
+        if (next[row] >= 0)
+            prev[next[row]] = prev[row];
+        else
+            tail = prev[row];
+    }
+
+    private void append(int row) {
+        prev[row] = tail;
+        next[row] = -1;
+
+        if (tail >= 0)
+            next[tail] = row;
+        else
+            head = row;
+        tail = row;
+    }
+
+    private void allocateSlots(int rows) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * rows)
+            capacity <<= 1;
+
+        keys = new long[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void ensureRows(int rows) {
+        if ((long)rows * width <= values.length)
+            return;
+
+        long length = Math.max((long)values.length * 2, (long)rows * width);
+        if (length > Integer.MAX_VALUE - 8)
+            length = (long)rows * width;
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("LongRowTable is full: " + rows + " rows of width " + width);
+
+        double[] grown = new double[(int)length];
+        System.arraycopy(values, 0, grown, 0, (size - 1) * width);
+        values = grown;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+
+        keys = new long[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0)
+                continue;
+
+            int j = (int)mix(oldKeys[i]) & mask;
+            while (slots[j] != 0)
+                j = (j + 1) & mask;
+
+            keys[j] = oldKeys[i];
+            slots[j] = oldSlots[i];
+        }
+    }
+
+    /* Finalizer of MurmurHash3, spreads structured keys over all slots */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+
+        return key;
+    }
+}
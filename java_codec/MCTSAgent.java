@@ -0,0 +1,424 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+
+/**
+ * A UCT planning agent that searches with a simulator of the environment
+ * instead of learning.
+ *
+ * The simulator is a SimulatedEnvironment in the same process, whose state is
+ * the observation the agent receives (true for Mines and Garnet). Usually it
+ * is the environment the agent is run against; it must have been through
+ * env_init before agent_init, which LocalGlue guarantees. Every worker thread
+ * searches on its own copy().
+ *
+ * On every step a new search is grown from the observed state until the time
+ * budget runs out, and the most visited root action is taken. A simulation
+ * descends with UCB1, adds one node and finishes with a uniformly random
+ * rollout, up to a total depth; the discounted return is backed up along the
+ * path. Nodes are found by state in a table, so paths that reach the same
+ * state share its statistics (a search graph rather than a tree); in grid
+ * worlds, where many paths meet, random rollouts alone are far too weak
+ * without that. Stochastic outcomes need no special handling, the state
+ * reached selects the node.
+ *
+ * The workers share the search without locks. Nodes are added to the table
+ * with a compare-and-set, and the statistics of every state-action pair are
+ * atomic: the visit count, and the sum of returns as the bits of a double
+ * updated with compare-and-set. Selecting an action counts the visit at once
+ * and subtracts a virtual loss from its sum, which is given back with the real
+ * return, so concurrent workers spread over different branches. When the
+ * table is three quarters full, simulations stop adding nodes.
+ *
+ * Messages: 'set_threads N' (from the next agent_init), 'set_time_budget MS',
+ * 'set_depth D', 'set_exploration C' (UCB constant, in units of the reward
+ * range of the task), 'set_table_capacity N' and 'mcts_stats'.
+ */
+public class MCTSAgent implements AgentInterface {
+
+    private final SimulatedEnvironment model;
+
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private long timeBudgetNanos = 10000000L;
+    private int maxDepth = 100;
+    private double exploration = 1.0;
+    // Slots of the node table of a search, a power of two
+    private int tableCapacity = 1 << 16;
+
+    private int numActions;
+    private double gamma;
+    // The spread of the rewards, which scales exploration and the virtual loss
+    private double rewardScale;
+
+    private Worker[] workers;
+    private ExecutorService pool;
+    private Action theAction = new Action(1, 0, 0);
+
+    // Statistics since the last agent_init
+    private final AtomicLong simulations = new AtomicLong();
+    private final AtomicLong simulatedSteps = new AtomicLong();
+    private long decisions = 0;
+    private long planningNanos = 0;
+
+    public MCTSAgent(SimulatedEnvironment model) {
+        this.model = model;
+    }
+
+    public void agent_init(String taskSpecification) {
+        TaskSpec ts = new TaskSpec(taskSpecification);
+        assert (ts.getNumDiscreteActionDims() == 1);
+        assert (ts.getNumContinuousActionDims() == 0);
+
+        numActions = ts.getDiscreteActionRange(0).getMax() + 1;
+        gamma = ts.getDiscountFactor();
+        rewardScale = ts.getRewardMax() - ts.getRewardMin();
+        if (Double.isNaN(rewardScale) || Double.isInfinite(rewardScale) || rewardScale <= 0)
+            rewardScale = 1;
+
+        shutdownPool();
+        workers = new Worker[numThreads];
+        for (int i = 0; i < numThreads; i++)
+            workers[i] = new Worker(model.copy(), new Random());
+        if (numThreads > 1) {
+            pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MCTSAgent worker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        simulations.set(0);
+        simulatedSteps.set(0);
+        decisions = 0;
+        planningNanos = 0;
+    }
+
+    public Action agent_start(Observation observation) {
+        return act(observation);
+    }
+
+    public Action agent_step(double reward, Observation observation) {
+        return act(observation);
+    }
+
+    public void agent_end(double reward) {
+    }
+
+    public void agent_cleanup() {
+        shutdownPool();
+        workers = null;
+    }
+
+    public String agent_message(String message) {
+        String[] parts = message.split(" ");
+
+        try {
+            if (message.startsWith("set_threads")) {
+                numThreads = Math.max(1, Integer.parseInt(parts[1]));
+                return "message understood, " + numThreads + " threads from next init";
+            }
+            if (message.startsWith("set_time_budget")) {
+                timeBudgetNanos = (long)(Double.parseDouble(parts[1]) * 1e6);
+                return "message understood, time budget " + parts[1] + " ms";
+            }
+            if (message.startsWith("set_depth")) {
+                maxDepth = Math.max(1, Integer.parseInt(parts[1]));
+                return "message understood, depth " + maxDepth;
+            }
+            if (message.startsWith("set_table_capacity")) {
+                int n = Math.max(16, Integer.parseInt(parts[1]));
+                tableCapacity = Integer.highestOneBit(n - 1) << 1;
+                return "message understood, table capacity " + tableCapacity;
+            }
+            if (message.startsWith("set_exploration")) {
+                exploration = Double.parseDouble(parts[1]);
+                return "message understood, exploration " + exploration;
+            }
+        } catch (RuntimeException ex) {
+            return "could not parse message: " + message;
+        }
+
+        if (message.startsWith("mcts_stats")) {
+            return String.format("decisions %d, simulations %d (%.0f per decision), simulated steps %d, " +
+                                 "%.0f steps/s on %d threads", decisions, simulations.get(), simulationsPerDecision(),
+                                 simulatedSteps.get(), stepsPerSecond(), workers == null ? 0 : workers.length);
+        }
+
+        return "MCTSAgent(Java) does not understand your message.";
+    }
+
+    private Action act(Observation observation) {
+        theAction.intArray[0] = plan(observation.getInt(0));
+        return theAction.duplicate();
+    }
+
+    /* Search from state until the time budget is used and return the most visited action */
+    private int plan(int state) {
+        long start = System.nanoTime();
+        final NodeTable table = new NodeTable(tableCapacity);
+        final Node root = table.findOrAdd(state, numActions, null);
+        final long deadline = start + timeBudgetNanos;
+
+        if (pool == null) {
+            workers[0].search(root, table, deadline);
+        } else {
+            List<Future<Object>> running = new ArrayList<Future<Object>>();
+            for (final Worker w : workers) {
+                running.add(pool.submit(new Callable<Object>() {
+                    public Object call() {
+                        w.search(root, table, deadline);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : running) {
+                try {
+                    f.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException("MCTS worker failed", ex.getCause());
+                }
+            }
+        }
+
+        planningNanos += System.nanoTime() - start;
+        decisions++;
+
+        int best = 0;
+        for (int a = 1; a < numActions; a++)
+            if (root.visits.get(a) > root.visits.get(best))
+                best = a;
+        return best;
+    }
+
+    /* Simulated steps per second of planning, over all threads */
+    double stepsPerSecond() {
+        return planningNanos == 0 ? 0 : simulatedSteps.get() / (planningNanos / 1e9);
+    }
+
+    double simulationsPerDecision() {
+        return decisions == 0 ? 0 : simulations.get() / (double)decisions;
+    }
+
+    private void shutdownPool() {
+        if (pool != null)
+            pool.shutdownNow();
+        pool = null;
+    }
+
+    /* A state in the search graph with the statistics of its actions */
+    private static final class Node {
+        final int state;
+        final AtomicInteger totalVisits = new AtomicInteger();
+        final AtomicIntegerArray visits;
+        // Sum of the returns of each action, as Double.doubleToRawLongBits
+        final AtomicLongArray valueSums;
+
+        Node(int state, int numActions) {
+            this.state = state;
+            visits = new AtomicIntegerArray(numActions);
+            valueSums = new AtomicLongArray(numActions);
+        }
+
+        void addValue(int action, double x) {
+            long old;
+            long updated;
+            do {
+                old = valueSums.get(action);
+                updated = Double.doubleToRawLongBits(Double.longBitsToDouble(old) + x);
+            } while (!valueSums.compareAndSet(action, old, updated));
+        }
+
+        double valueSum(int action) {
+            return Double.longBitsToDouble(valueSums.get(action));
+        }
+    }
+
+    /* The nodes of one search by state: an open addressing hash table with
+     * linear probing, filled with compare-and-set and never shrunk.
+     */
+    private static final class NodeTable {
+        final AtomicReferenceArray<Node> slots;
+        final AtomicInteger size = new AtomicInteger();
+        final int mask;
+        final int maxSize;
+
+        NodeTable(int capacity) {
+            slots = new AtomicReferenceArray<Node>(capacity);
+            mask = capacity - 1;
+            maxSize = capacity / 4 * 3;
+        }
+
+        /* The node of state, added if it is not in the table yet, or null if
+         * it is not and the table is full. If added is given, added[0] tells
+         * whether this call added the node.
+         */
+        Node findOrAdd(int state, int numActions, boolean[] added) {
+            if (added != null)
+                added[0] = false;
+            int i = (state * 0x9E3779B9) & mask;
+            Node created = null;
+
+            while (true) {
+                Node n = slots.get(i);
+                if (n == null) {
+                    if (size.get() >= maxSize)
+                        return null;
+                    if (created == null)
+                        created = new Node(state, numActions);
+                    if (slots.compareAndSet(i, null, created)) {
+                        size.incrementAndGet();
+                        if (added != null)
+                            added[0] = true;
+                        return created;
+                    }
+                    n = slots.get(i);
+                }
+                if (n.state == state)
+                    return n;
+                i = (i + 1) & mask;
+            }
+        }
+    }
+
+    /* A search thread with its own simulator and random numbers */
+    private final class Worker {
+        final SimulatedEnvironment env;
+        final Random rand;
+        final Action action = new Action(1, 0, 0);
+        // The edges taken in the tree by the current simulation
+        Node[] pathNodes = new Node[0];
+        int[] pathActions = new int[0];
+        double[] pathRewards = new double[0];
+        // Whether the last findOrAdd of this worker added its node
+        final boolean[] added = new boolean[1];
+
+        Worker(SimulatedEnvironment env, Random rand) {
+            this.env = env;
+            this.rand = rand;
+        }
+
+        void search(Node root, NodeTable table, long deadline) {
+            long sims = 0;
+            long steps = 0;
+            do {
+                steps += simulate(root, table);
+                sims++;
+            } while (System.nanoTime() < deadline);
+
+            simulations.addAndGet(sims);
+            simulatedSteps.addAndGet(steps);
+        }
+
+        /* One simulation from the root, returns the number of steps simulated */
+        int simulate(Node root, NodeTable table) {
+            int depthLimit = maxDepth;
+            if (pathNodes.length < depthLimit) {
+                pathNodes = new Node[depthLimit];
+                pathActions = new int[depthLimit];
+                pathRewards = new double[depthLimit];
+            }
+            double virtualLoss = rewardScale;
+            env.restoreState(root.state);
+
+            Node node = root;
+            int depth = 0;
+            boolean terminal = false;
+            boolean inTree = true;
+
+            // Selection and expansion
+            while (inTree && depth < depthLimit) {
+                int a = select(node);
+                node.totalVisits.incrementAndGet();
+                node.visits.incrementAndGet(a);
+                node.addValue(a, -virtualLoss);
+
+                pathNodes[depth] = node;
+                pathActions[depth] = a;
+                action.intArray[0] = a;
+                Reward_observation_terminal result = env.env_step(action);
+                pathRewards[depth] = result.getReward();
+                depth++;
+
+                terminal = result.isTerminal();
+                if (terminal)
+                    break;
+
+                // Expansion: a state not in the table yet is added, and the rollout starts
+                int next = env.saveState();
+                Node child = table.findOrAdd(next, numActions, added);
+                if (child == null || added[0])
+                    inTree = false;
+                else
+                    node = child;
+            }
+            int treeDepth = depth;
+
+            // Random rollout from the new node
+            double tail = 0;
+            double discount = 1;
+            int steps = depth;
+            while (!terminal && steps < maxDepth) {
+                action.intArray[0] = rand.nextInt(numActions);
+                Reward_observation_terminal result = env.env_step(action);
+                tail += discount * result.getReward();
+                discount *= gamma;
+                terminal = result.isTerminal();
+                steps++;
+            }
+
+            // Backup, returning the virtual loss
+            double G = tail;
+            for (int i = treeDepth - 1; i >= 0; i--) {
+                G = pathRewards[i] + gamma * G;
+                pathNodes[i].addValue(pathActions[i], G + virtualLoss);
+            }
+
+            return steps;
+        }
+
+        /* UCB1, trying every action once first */
+        int select(Node node) {
+            int total = node.totalVisits.get();
+            double logTotal = Math.log(Math.max(total, 1));
+            double c = exploration * rewardScale;
+
+            int best = 0;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            int offset = rand.nextInt(numActions);
+
+            for (int i = 0; i < numActions; i++) {
+                int a = (i + offset) % numActions;
+                int n = node.visits.get(a);
+                if (n == 0)
+                    return a;
+
+                double value = node.valueSum(a) / n + c * Math.sqrt(logTotal / n);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = a;
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+
+/**
+ * Rollout throughput and play quality of MCTSAgent on Mines and on generated
+ * grid worlds, for different numbers of worker threads.
+ *
+ * For every world and thread count the agent plays a number of episodes with
+ * a fixed time budget per step. The report gives the simulated environment
+ * steps per second over all threads and per thread, the simulations per
+ * decision and the mean return. On a machine with fewer cores than threads
+ * the per thread rate drops accordingly.
+ *
+ * Usage: java MCTSBenchmark [episodes] [budgetMillis] [maxThreads]
+ */
+public class MCTSBenchmark {
+
+    private final int episodes;
+    private final double budgetMillis;
+
+    public MCTSBenchmark(int episodes, double budgetMillis) {
+        this.episodes = episodes;
+        this.budgetMillis = budgetMillis;
+    }
+
+    public static void main(String[] args) {
+        int episodes = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        double budget = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        MCTSBenchmark benchmark = new MCTSBenchmark(episodes, budget);
+        System.out.printf("%d episodes, %.1f ms per step, %d cores%n", episodes, budget,
+                          Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-12s %7s %14s %14s %12s %10s%n", "world", "threads", "steps/s", "steps/s/thread",
+                          "sims/step", "return");
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            benchmark.run("mines 6x18", null, threads);
+            benchmark.run("grid 32x32", GridWorldGenerator.generate(32, 32, 0.10, 0.04, 0, 2), threads);
+            benchmark.run("grid 128x128", GridWorldGenerator.generate(128, 128, 0.10, 0.04, 0.001, 4), threads);
+        }
+    }
+
+    private void run(String name, int[][] map, int threads) {
+        SampleMinesEnvironment env = map == null ? new SampleMinesEnvironment() : new SampleMinesEnvironment(map);
+        MCTSAgent agent = new MCTSAgent(env);
+        agent.agent_message("set_threads " + threads);
+        agent.agent_message("set_time_budget " + budgetMillis);
+
+        RLGlue.setGlue(new LocalGlue(env, agent));
+        RLGlue.RL_init();
+
+        double sum = 0;
+        for (int e = 0; e < episodes; e++) {
+            RLGlue.RL_episode(200);
+            sum += RLGlue.RL_return();
+        }
+
+        double rate = agent.stepsPerSecond();
+        System.out.printf("%-12s %7d %14.0f %14.0f %12.0f %10.2f%n", name, threads, rate, rate / threads,
+                          agent.simulationsPerDecision(), sum / episodes);
+        RLGlue.RL_cleanup();
+    }
+}
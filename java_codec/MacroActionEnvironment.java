@@ -0,0 +1,21 @@
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+
+/**
+ * An environment that can execute a whole sequence of actions in one call,
+ * saving a round trip per step for agents that plan open loop.
+ *
+ * executePlan runs actions[0 .. length-1] from the current state and stops
+ * early when the episode ends (TERMINAL) or when, after step i, the
+ * observation differs from expected[i] (DEVIATED). Entries of expected that
+ * are negative, or a null array, are not checked. The environment is left in
+ * the state after the last executed step, as if it had been stepped one
+ * action at a time; after TERMINAL the next call must be env_start.
+ *
+ * The same is available over RL-Glue with the env message
+ * 'execute-plan GAMMA A1 A2 ... [expect O1 O2 ...]', which answers
+ * "STEPS DISCOUNTED_REWARD OBSERVATION REASON".
+ */
+public interface MacroActionEnvironment extends EnvironmentInterface {
+
+    public void executePlan(int[] actions, int[] expected, int length, double gamma, PlanResult result);
+}
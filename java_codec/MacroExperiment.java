@@ -0,0 +1,139 @@
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * Compares MixedModelAgent run one step at a time through RL-Glue with the
+ * same agent sending whole plans to a MacroActionEnvironment.
+ *
+ * In the macro run the agent asks for a plan before every step; while its
+ * model is believed deterministic it gets the greedy path through the known
+ * transitions, which the environment executes in one call. Otherwise the
+ * plan is a single action and is sent with env_step. Both runs use the same
+ * number of episodes of at most MAX_STEPS steps; the report gives the steps,
+ * the environment calls (env_start, env_step and executePlan), the mean
+ * steps per call, the time and the mean return of the last tenth of the
+ * episodes.
+ *
+ * Usage: java MacroExperiment [mines|garnet] [episodes] [planThreshold]
+ * with defaults mines, 2000 and 0.99.
+ */
+public class MacroExperiment {
+
+    private static final int MAX_STEPS = 10000;
+    private static final int MAX_PLAN = 64;
+
+    private final String envName;
+    private final int episodes;
+    private final double planThreshold;
+
+    public MacroExperiment(String envName, int episodes, double planThreshold) {
+        this.envName = envName;
+        this.episodes = episodes;
+        this.planThreshold = planThreshold;
+    }
+
+    public static void main(String[] args) {
+        String envName = args.length > 0 ? args[0] : "mines";
+        int episodes = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        double planThreshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.99;
+
+        MacroExperiment experiment = new MacroExperiment(envName, episodes, planThreshold);
+        System.out.printf("MixedModelAgent on %s, %d episodes%n", envName, episodes);
+        System.out.printf("%-10s %10s %10s %12s %10s %14s%n", "run", "steps", "env calls", "steps/call", "ms",
+                          "late return");
+        experiment.runStepwise();
+        experiment.runMacro();
+    }
+
+    private MacroActionEnvironment newEnvironment() {
+        if (envName.equals("garnet"))
+            return new GarnetEnvironment();
+        return new SampleMinesEnvironment();
+    }
+
+    private void runStepwise() {
+        MixedModelAgent agent = new MixedModelAgent();
+        RLGlue.setGlue(new LocalGlue(newEnvironment(), agent));
+        RLGlue.RL_init();
+
+        long steps = 0;
+        int lateFrom = episodes - Math.max(1, episodes / 10);
+        double lateReturn = 0;
+
+        long start = System.nanoTime();
+        for (int e = 0; e < episodes; e++) {
+            RLGlue.RL_episode(MAX_STEPS);
+            steps += RLGlue.RL_num_steps();
+            if (e >= lateFrom)
+                lateReturn += RLGlue.RL_return();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        RLGlue.RL_cleanup();
+        // One env_start per episode and one env_step per step
+        report("stepwise", steps, steps + episodes, elapsed, lateReturn / (episodes - lateFrom));
+    }
+
+    private void runMacro() {
+        MixedModelAgent agent = new MixedModelAgent();
+        MacroActionEnvironment env = newEnvironment();
+        agent.agent_init(env.env_init());
+        agent.agent_message("set_plan_threshold " + planThreshold);
+
+        int[] actions = new int[MAX_PLAN];
+        int[] expected = new int[MAX_PLAN];
+        PlanResult result = new PlanResult(MAX_PLAN);
+
+        long steps = 0;
+        long calls = 0;
+        int lateFrom = episodes - Math.max(1, episodes / 10);
+        double lateReturn = 0;
+
+        long start = System.nanoTime();
+        for (int e = 0; e < episodes; e++) {
+            Observation o = env.env_start();
+            calls++;
+            Action action = agent.agent_start(o);
+            int episodeSteps = 0;
+            double episodeReturn = 0;
+
+            while (action != null && episodeSteps < MAX_STEPS) {
+                int length = Math.min(agent.plan(actions, expected), MAX_STEPS - episodeSteps);
+                calls++;
+
+                if (length == 1) {
+                    Reward_observation_terminal rot = env.env_step(action);
+                    episodeSteps++;
+                    episodeReturn += rot.getReward();
+                    if (rot.isTerminal()) {
+                        agent.agent_end(rot.getReward());
+                        action = null;
+                    } else
+                        action = agent.agent_step(rot.getReward(), rot.getObservation());
+                } else {
+                    env.executePlan(actions, expected, length, 1.0, result);
+                    episodeSteps += result.steps;
+                    episodeReturn += result.discountedReward;
+                    action = agent.observePlan(actions, expected, result);
+                }
+            }
+
+            steps += episodeSteps;
+            if (e >= lateFrom)
+                lateReturn += episodeReturn;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        agent.agent_cleanup();
+        env.env_cleanup();
+        report("macro", steps, calls, elapsed, lateReturn / (episodes - lateFrom));
+    }
+
+    private static void report(String name, long steps, long calls, long nanos, double lateReturn) {
+        System.out.printf("%-10s %10d %10d %12.2f %10.0f %14.2f%n", name, steps, calls, steps / (double)calls,
+                          nanos / 1e6, lateReturn);
+    }
+}
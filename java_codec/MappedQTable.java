@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * QTable stored off-heap in a memory mapped file, for tables that do not fit
+ * on the heap or that should survive the process.
+ *
+ * The file has the TableSnapshot layout (header followed by Q[action][state]
+ * as little endian doubles), so it can be read with load_policy or
+ * TableSnapshot.read and an existing snapshot of the right shape can be
+ * opened directly. A new file is created sparse, so all values start at 0
+ * and untouched pages cost no disk space.
+ *
+ * The checksum in the header is brought up to date by flush and close. The
+ * values themselves reach the file through the page cache even if the process
+ * ends without closing the table; such a file is opened again with a warning
+ * about the stale checksum, while TableSnapshot.read rejects it until it has
+ * been flushed.
+ *
+ * The payload is mapped in regions of 2^CHUNK_SHIFT bytes, which allows
+ * tables of more than 2^28 entries (the limit of a single mapping).
+ */
+public class MappedQTable implements QTable {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final int numActions;
+    private final int numStates;
+    private final long payloadBytes;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final TableSnapshot.Header header;
+    private final MappedByteBuffer[] chunks;
+
+    // True if the values were loaded from an existing file
+    private final boolean reused;
+
+    public MappedQTable(File file, String agentClass, int numActions, int numStates) throws IOException {
+        this.numActions = numActions;
+        this.numStates = numStates;
+        payloadBytes = (long)numActions * numStates * 8;
+
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            channel = raf.getChannel();
+
+            TableSnapshot.Header existing = TableSnapshot.Header.decode(channel);
+            if (existing != null) {
+                check(existing, agentClass);
+                header = existing;
+                reused = true;
+            } else {
+                if (channel.size() > 0)
+                    throw new IOException("Not a value function snapshot: " + file);
+                header = new TableSnapshot.Header(agentClass, numActions, numStates);
+                raf.setLength(header.headerSize + payloadBytes);
+                channel.write(header.encode(), 0);
+                reused = false;
+            }
+
+            int n = (int)((payloadBytes + CHUNK_MASK) >>> CHUNK_SHIFT);
+            chunks = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = (long)i << CHUNK_SHIFT;
+                long size = Math.min(1L << CHUNK_SHIFT, payloadBytes - start);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, header.headerSize + start, size);
+                chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    public boolean reused() {
+        return reused;
+    }
+
+    public int numActions() {
+        return numActions;
+    }
+
+    public int numStates() {
+        return numStates;
+    }
+
+    public double get(int action, int state) {
+        long p = position(action, state);
+        return chunks[(int)(p >>> CHUNK_SHIFT)].getDouble((int)(p & CHUNK_MASK));
+    }
+
+    public void set(int action, int state, double value) {
+        long p = position(action, state);
+        chunks[(int)(p >>> CHUNK_SHIFT)].putDouble((int)(p & CHUNK_MASK), value);
+    }
+
+    public int maxAction(int state) {
+        int maxIndex = 0;
+        double max = get(0, state);
+
+        for (int a = 1; a < numActions; a++) {
+            double q = get(a, state);
+            if (q > max) {
+                max = q;
+                maxIndex = a;
+            }
+        }
+
+        return maxIndex;
+    }
+
+    public void read(int action, int state, double[] dst, int offset, int count) {
+        long p = position(action, state);
+        while (count > 0) {
+            DoubleBuffer d = doubles(p);
+            int n = Math.min(count, d.remaining());
+            d.get(dst, offset, n);
+            p += n * 8L;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    public void write(int action, int state, double[] src, int offset, int count) {
+        long p = position(action, state);
+        while (count > 0) {
+            DoubleBuffer d = doubles(p);
+            int n = Math.min(count, d.remaining());
+            d.put(src, offset, n);
+            p += n * 8L;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    /* Write the values to disk and update the checksum in the header */
+    public void flush() throws IOException {
+        for (MappedByteBuffer chunk : chunks)
+            chunk.force();
+
+        header.checksum = new TableSnapshot.PayloadCursor(channel, FileChannel.MapMode.READ_ONLY,
+                                                          header.headerSize, payloadBytes).checksum();
+        channel.write(header.encode(), 0);
+        channel.force(true);
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private long position(int action, int state) {
+        return ((long)action * numStates + state) << 3;
+    }
+
+    // The doubles of the chunk containing byte p of the payload, starting at p
+    private DoubleBuffer doubles(long p) {
+        MappedByteBuffer chunk = chunks[(int)(p >>> CHUNK_SHIFT)];
+        DoubleBuffer d = chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        d.position((int)((p & CHUNK_MASK) >>> 3));
+        return d;
+    }
+
+    private void check(TableSnapshot.Header h, String agentClass) throws IOException {
+        if (h.version != TableSnapshot.VERSION)
+            throw new IOException("Unsupported snapshot version " + h.version);
+        if (h.dtype != TableSnapshot.DTYPE_FLOAT64)
+            throw new IOException("Unsupported snapshot dtype " + h.dtype);
+        if (h.rows != numActions || h.cols != numStates)
+            throw new IOException("Snapshot is " + h.rows + "x" + h.cols +
+                                  " but the table is " + numActions + "x" + numStates);
+        if (!h.agentClass.equals(agentClass))
+            throw new IOException("Snapshot was written by " + h.agentClass + ", not " + agentClass);
+        if (channel.size() < h.headerSize + payloadBytes)
+            throw new IOException("Snapshot is truncated");
+
+        long checksum = new TableSnapshot.PayloadCursor(channel, FileChannel.MapMode.READ_ONLY,
+                                                        h.headerSize, payloadBytes).checksum();
+        if (checksum != h.checksum)
+            System.err.println("Warning: value function file was not closed cleanly (checksum mismatch), " +
+                               "using its contents");
+    }
+}
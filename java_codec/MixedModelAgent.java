@@ -1,3 +1,7 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
 import java.util.Map;
 import java.util.HashMap;
@@ -28,6 +32,9 @@ public class MixedModelAgent implements AgentInterface {
     private double gamma;
     private static final int BATCH_SIZE = 1; /* increase this if value iteration is too slow */
     
+    // Maps observations to state indices
+    private ObservationIndexer observationIndexer;
+
     // The number of states
     private int S;
 
@@ -80,6 +87,11 @@ public class MixedModelAgent implements AgentInterface {
     private int state, action;
     private int steps;
 
+    // Plans of more than one step are made when pD is at least planThreshold,
+    // and are at most planLength long
+    private double planThreshold = 0.99;
+    private int planLength = 64;
+
     public void agent_init(String taskSpecification) {
         TaskSpec ts = new TaskSpec(taskSpecification);
 
@@ -92,7 +104,8 @@ public class MixedModelAgent implements AgentInterface {
         gamma = Math.min(gamma, 0.95);
 
         // The the total number of states and actions
-        S = ts.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(ts);
+        S = observationIndexer.size();
         A = ts.getDiscreteActionRange(0).getMax() + 1;
 
         // Initialize the transition probabilities
@@ -129,7 +142,7 @@ public class MixedModelAgent implements AgentInterface {
     }
     
     public Action agent_start(Observation observation) {
-        state = observation.getInt(0);	
+        state = observationIndexer.index(observation);	
         action = chooseAction(state);
         visits[state][action]++;
         visitsSum[state]++;
@@ -142,8 +155,124 @@ public class MixedModelAgent implements AgentInterface {
     }
    
     public Action agent_step(double reward, Observation observation) {
-        int nextState = observation.getInt(0);
-                        
+        int nextState = observationIndexer.index(observation);
+
+        learn(nextState, reward);
+
+        // Find an optimal policy for the estimated MDP via value iteration
+        if (steps % BATCH_SIZE == 0) {
+            //don't do it every time, it is too expensive	   
+            valueIteration();
+        }
+
+        // Update state
+        state = nextState;
+
+        // Choose an action w.r.t. the current policy
+        action = chooseAction(state);
+        visits[state][action]++;       	
+        visitsSum[state]++;
+        
+        // Return the choosen action
+        Action returnAction = new Action(1, 0, 0);
+        returnAction.setInt(0, action);
+        steps++;
+        
+        return returnAction;
+    }
+    
+    public void agent_end(double reward) {
+        learnEnd(reward);
+    }
+
+    /**
+     * Write an open-loop plan for the coming steps: the action already chosen
+     * for the current state, followed by the actions of the current policy
+     * along the deterministic model for as long as the model has seen every
+     * transition.  expected[i] is the observation the model predicts after
+     * actions[i], -1 if it does not know.  Plans of more than one action are
+     * only made while the history is consistent with a deterministic MDP and
+     * pD is at least the plan threshold; they follow the greedy policy, so
+     * there is no exploration within a plan.  Returns the plan length.
+     * @param actions
+     * @param expected
+     * @return
+     */
+    public int plan(int[] actions, int[] expected) {
+        actions[0] = action;
+        expected[0] = -1;
+
+        // The current pair was counted when it was chosen, so its transition
+        // is known only if it was counted before
+        if (mdpIsStochastic || pD < planThreshold || observationIndexer.dims() != 1 || visits[state][action] < 2)
+            return 1;
+
+        int limit = Math.min(Math.min(actions.length, expected.length), planLength);
+        int s = state;
+        int a = action;
+        int n = 0;
+        while (true) {
+            actions[n] = a;
+            expected[n] = observationIndexer.value(ds[s][a]);
+            n++;
+            if (n >= limit)
+                break;
+
+            s = ds[s][a];
+            a = pi[s];
+            if (visits[s][a] == 0)
+                break;
+        }
+
+        return n;
+    }
+
+    /**
+     * Learn from a plan that was run with MacroActionEnvironment.executePlan
+     * as if each executed step had gone through agent_step, except that the
+     * value iteration is done once at the end, and choose the next action.
+     * result.rewards must be set.
+     * @param actions
+     * @param expected
+     * @param result
+     * @return the next action, or null if the episode ended
+     */
+    public Action observePlan(int[] actions, int[] expected, PlanResult result) {
+        for (int i = 0; i < result.steps; i++) {
+            if (i > 0) {
+                action = actions[i];
+                visits[state][action]++;
+                visitsSum[state]++;
+                steps++;
+            }
+
+            boolean last = i == result.steps - 1;
+            if (last && result.stopReason == PlanResult.TERMINAL) {
+                learnEnd(result.rewards[i]);
+                return null;
+            }
+
+            // Every step but the last went as expected
+            int nextState = observationIndexer.index(last ? result.observation : expected[i]);
+            learn(nextState, result.rewards[i]);
+            state = nextState;
+        }
+
+        valueIteration();
+
+        action = chooseAction(state);
+        visits[state][action]++;
+        visitsSum[state]++;
+
+        Action returnAction = new Action(1, 0, 0);
+        returnAction.setInt(0, action);
+        steps++;
+
+        return returnAction;
+    }
+
+    /* Update the model with the outcome of the current state and action */
+    private void learn(int nextState, double reward) {
         //// Handle the deterministic part of the model
         if (!mdpIsStochastic) {
             if (visits[state][action] == 1) {
@@ -171,30 +300,10 @@ public class MixedModelAgent implements AgentInterface {
         
         // Update our current beliefs about the expected rewards
         rS[state][action] = ((visits[state][action] - 1) * rS[state][action] + reward) / visits[state][action];
-
-        // Find an optimal policy for the estimated MDP via value iteration
-        if (steps % BATCH_SIZE == 0) {
-            //don't do it every time, it is too expensive	   
-            valueIteration();
-        }
-
-        // Update state
-        state = nextState;
-
-        // Choose an action w.r.t. the current policy
-        action = chooseAction(state);
-        visits[state][action]++;       	
-        visitsSum[state]++;
-        
-        // Return the choosen action
-        Action returnAction = new Action(1, 0, 0);
-        returnAction.setInt(0, action);
-        steps++;
-        
-        return returnAction;
     }
-    
-    public void agent_end(double reward) {
+
+    /* Update the model with the last reward of an episode */
+    private void learnEnd(double reward) {
         //// Handle the deterministic part of the model
         if (!mdpIsStochastic) {
             if (visits[state][action] == 1) {
@@ -229,6 +338,38 @@ public class MixedModelAgent implements AgentInterface {
             freezeLearning = false;
         } else if (message.equals("what is your name?")) {
             return "MixedModelAgent by Sebastian and Stefan";
+        } else if (message.startsWith("save_model")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "save_model needs a file name";
+            saveModel(parts[1]);
+            return "message understood, saving model";
+        } else if (message.startsWith("load_model")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "load_model needs a file name";
+            loadModel(parts[1]);
+            return "message understood, loading model";
+        } else if (message.startsWith("set_plan_threshold")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "set_plan_threshold needs a probability";
+            try {
+                planThreshold = Double.parseDouble(parts[1]);
+            } catch (NumberFormatException ex) {
+                return "bad plan threshold: " + parts[1];
+            }
+            return "message understood, planning when pD >= " + planThreshold;
+        } else if (message.startsWith("set_plan_length")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "set_plan_length needs a number of steps";
+            try {
+                planLength = Math.max(1, Integer.parseInt(parts[1]));
+            } catch (NumberFormatException ex) {
+                return "bad plan length: " + parts[1];
+            }
+            return "message understood, plans of at most " + planLength + " steps";
         } else {
             System.out.println("Unhandled Message received: " + message);
         }
@@ -236,6 +377,68 @@ public class MixedModelAgent implements AgentInterface {
         return "Agent cannot handle this message.";
     }    
    
+    /* Write both the deterministic and the stochastic part of the model,
+     * the model beliefs, the value function and the policy to a ModelCheckpoint.
+     * The transition counts are stored sparsely.
+     */
+    private void saveModel(String fileName) {
+        try {
+            ModelCheckpoint.Writer w = new ModelCheckpoint.Writer(new File(fileName), getClass().getName(), S, A);
+            try {
+                DataOutputStream out = w.out();
+
+                w.writeCounts(p);
+                w.write(rS);
+                w.write(visits);
+                w.write(visitsSum);
+
+                out.writeBoolean(mdpIsStochastic);
+                w.write(ds);
+                w.write(rD);
+                out.writeDouble(sFactor);
+                out.writeDouble(pD);
+                out.writeDouble(pS);
+
+                w.write(pi);
+                w.write(v);
+                out.writeInt(steps);
+                w.close();
+            } finally {
+                w.abort();
+            }
+        } catch (IOException ex) {
+            System.err.println("Problem writing model to file: " + fileName + " :: " + ex);
+        }
+    }
+
+    /* Restore everything saved by saveModel. The policy is restored as well,
+     * so no value iteration is needed before acting. Must be called after init.
+     */
+    private void loadModel(String fileName) {
+        try {
+            ModelCheckpoint.Reader rd = new ModelCheckpoint.Reader(new File(fileName), getClass().getName(), S, A);
+            DataInputStream in = rd.in();
+
+            rd.readCounts(p);
+            rd.read(rS);
+            rd.read(visits);
+            rd.read(visitsSum);
+
+            mdpIsStochastic = in.readBoolean();
+            rd.read(ds);
+            rd.read(rD);
+            sFactor = in.readDouble();
+            pD = in.readDouble();
+            pS = in.readDouble();
+
+            rd.read(pi);
+            rd.read(v);
+            steps = in.readInt();
+        } catch (IOException ex) {
+            System.err.println("Problem reading model from file: " + fileName + " :: " + ex);
+        }
+    }
+
     private double arraySum(double[] v) {
         double sum = 0;
         for (double d : v)
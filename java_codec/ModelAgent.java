@@ -1,3 +1,7 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
 import org.rlcommunity.rlglue.codec.AgentInterface;
 import org.rlcommunity.rlglue.codec.types.Action;
@@ -15,6 +19,9 @@ public class ModelAgent implements AgentInterface {
     private double delta = 0.1;
     private double gamma;
     
+    // Maps observations to state indices
+    private ObservationIndexer observationIndexer;
+
     // The number of states
     private int S;
 
@@ -58,7 +65,8 @@ public class ModelAgent implements AgentInterface {
         gamma = Math.min(gamma, 0.8);
         
         // The the total number of states and actions
-        S = ts.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(ts);
+        S = observationIndexer.size();
         A = ts.getDiscreteActionRange(0).getMax() + 1;
 
         // Initialize the estimates for the transition probabilities
@@ -84,7 +92,7 @@ public class ModelAgent implements AgentInterface {
     }
     
     public Action agent_start(Observation observation) {
-        state = observation.getInt(0);	
+        state = observationIndexer.index(observation);	
         action = chooseAction(state);
         visits   [state][action]++;
         visitsSum[state]++;
@@ -97,7 +105,7 @@ public class ModelAgent implements AgentInterface {
    
     public Action agent_step(double reward, Observation observation) {
         steps++;
-        int nextState = observation.getInt(0);
+        int nextState = observationIndexer.index(observation);
 
         // Update our current beliefs about the transition probabilities
         double alphaSum = S + visits[state][action];
@@ -136,9 +144,139 @@ public class ModelAgent implements AgentInterface {
     }
 
     public String agent_message(String message) {
-        return "Agent does not handle any messages.";
+        if (message.startsWith("save_model")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "save_model needs a file name";
+            saveModel(parts[1]);
+            return "message understood, saving model";
+        }
+        if (message.startsWith("load_model")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "load_model needs a file name";
+            loadModel(parts[1]);
+            return "message understood, loading model";
+        }
+
+        return "Agent does not handle this message.";
     }    
 
+    /* Write the model, value function and policy to a ModelCheckpoint.
+     * The rows of p that were never updated are still uniform and are skipped;
+     * the others are stored as their most common value plus the entries that
+     * differ from it.
+     */
+    private void saveModel(String fileName) {
+        try {
+            ModelCheckpoint.Writer w = new ModelCheckpoint.Writer(new File(fileName), getClass().getName(), S, A);
+            try {
+                DataOutputStream out = w.out();
+
+                int visited = 0;
+                for (int s = 0; s < S; s++)
+                    for (int a = 0; a < A; a++)
+                        if (visits[s][a] > 0)
+                            visited++;
+
+                out.writeInt(visited);
+                for (int s = 0; s < S; s++) {
+                    for (int a = 0; a < A; a++) {
+                        if (visits[s][a] == 0)
+                            continue;
+
+                        double background = mostCommon(p[s][a]);
+                        int n = 0;
+                        for (int j = 0; j < S; j++)
+                            if (p[s][a][j] != background)
+                                n++;
+
+                        out.writeInt(s);
+                        out.writeInt(a);
+                        out.writeDouble(background);
+                        out.writeInt(n);
+                        for (int j = 0; j < S; j++) {
+                            if (p[s][a][j] != background) {
+                                out.writeInt(j);
+                                out.writeDouble(p[s][a][j]);
+                            }
+                        }
+                    }
+                }
+
+                w.write(r);
+                w.write(visits);
+                w.write(visitsSum);
+                w.write(pi);
+                w.write(v);
+                out.writeInt(steps);
+                w.close();
+            } finally {
+                w.abort();
+            }
+        } catch (IOException ex) {
+            System.err.println("Problem writing model to file: " + fileName + " :: " + ex);
+        }
+    }
+
+    /* Restore everything saved by saveModel, including the policy, so the
+     * agent acts on it right away. Must be called after init.
+     */
+    private void loadModel(String fileName) {
+        try {
+            ModelCheckpoint.Reader rd = new ModelCheckpoint.Reader(new File(fileName), getClass().getName(), S, A);
+            DataInputStream in = rd.in();
+
+            for (int s = 0; s < S; s++)
+                for (int a = 0; a < A; a++)
+                    for (int j = 0; j < S; j++)
+                        p[s][a][j] = 1.0 / S;
+
+            int visited = in.readInt();
+            for (int k = 0; k < visited; k++) {
+                int s = in.readInt();
+                int a = in.readInt();
+                double background = in.readDouble();
+                for (int j = 0; j < S; j++)
+                    p[s][a][j] = background;
+
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    int j = in.readInt();
+                    p[s][a][j] = in.readDouble();
+                }
+            }
+
+            rd.read(r);
+            rd.read(visits);
+            rd.read(visitsSum);
+            rd.read(pi);
+            rd.read(v);
+            steps = in.readInt();
+        } catch (IOException ex) {
+            System.err.println("Problem reading model from file: " + fileName + " :: " + ex);
+        }
+    }
+
+    // Majority vote over the entries of an array
+    private double mostCommon(double[] x) {
+        double candidate = x[0];
+        int count = 0;
+
+        for (double d : x) {
+            if (count == 0) {
+                candidate = d;
+                count = 1;
+            } else if (d == candidate) {
+                count++;
+            } else {
+                count--;
+            }
+        }
+
+        return candidate;
+    }
+
     private double expectedReward(int s, int a, double[] v) {
         double futureReward = 0;
         for (int j = 0; j < S; j++)
@@ -0,0 +1,228 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary checkpoint of the learned model of a model-based agent.
+ *
+ * A checkpoint starts with a header (magic "RLMD", version, agent class, number
+ * of states S and actions A), followed by the sections the agent chooses to
+ * write, followed by a CRC32 of everything before it. Dense sections hold
+ * arrays as they are; sparse count sections hold only the visited
+ * state-action pairs and the successor states actually observed from them,
+ * which is what keeps checkpoints of large but sparsely explored models small.
+ *
+ * The agent writes and reads its sections in the same order. A Writer writes
+ * to a temporary file next to the target and only renames it over the target
+ * in close(), so a failed save leaves the previous checkpoint in place. A
+ * Reader checks the checksum and the header before the first section is read,
+ * so a damaged or mismatching file is rejected before any agent state is
+ * touched.
+ */
+public class ModelCheckpoint {
+
+    public static final int MAGIC = 0x524C4D44; // "RLMD"
+    public static final int VERSION = 1;
+
+    public static class Writer {
+        private final File file;
+        private final File tmp;
+        private final FileOutputStream fileOut;
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private boolean committed;
+
+        public Writer(File file, String agentClass, int S, int A) throws IOException {
+            this.file = file;
+            tmp = new File(file.getPath() + ".tmp");
+            fileOut = new FileOutputStream(tmp);
+            checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), new CRC32());
+            out = new DataOutputStream(checked);
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(agentClass);
+                out.writeInt(S);
+                out.writeInt(A);
+            } catch (IOException ex) {
+                abort();
+                throw ex;
+            }
+        }
+
+        public DataOutputStream out() {
+            return out;
+        }
+
+        public void write(double[] x) throws IOException {
+            for (double d : x)
+                out.writeDouble(d);
+        }
+
+        public void write(int[] x) throws IOException {
+            for (int i : x)
+                out.writeInt(i);
+        }
+
+        public void write(double[][] x) throws IOException {
+            for (double[] row : x)
+                write(row);
+        }
+
+        public void write(int[][] x) throws IOException {
+            for (int[] row : x)
+                write(row);
+        }
+
+        /* Write the observed successor counts counts[s][a] (next state -> times) */
+        public void writeCounts(Map<Integer, Integer>[][] counts) throws IOException {
+            int pairs = 0;
+            for (Map<Integer, Integer>[] row : counts)
+                for (Map<Integer, Integer> m : row)
+                    if (!m.isEmpty())
+                        pairs++;
+
+            out.writeInt(pairs);
+            for (int s = 0; s < counts.length; s++) {
+                for (int a = 0; a < counts[s].length; a++) {
+                    Map<Integer, Integer> m = counts[s][a];
+                    if (m.isEmpty())
+                        continue;
+
+                    out.writeInt(s);
+                    out.writeInt(a);
+                    out.writeInt(m.size());
+                    for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
+                        out.writeInt(entry.getKey());
+                        out.writeInt(entry.getValue());
+                    }
+                }
+            }
+        }
+
+        /* Append the checksum, force the file to disk and rename it over the target */
+        public void close() throws IOException {
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            out.writeLong(crc);
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        /* Unless close() succeeded, close and delete the temporary file; the
+         * target keeps its previous contents. Meant for a finally block.
+         */
+        public void abort() {
+            if (committed)
+                return;
+
+            try {
+                out.close();
+            } catch (IOException ex) {
+            }
+            tmp.delete();
+        }
+    }
+
+    public static class Reader {
+        private final DataInputStream in;
+
+        public Reader(File file, String agentClass, int S, int A) throws IOException {
+            long length = file.length();
+            if (length < 8 || length > Integer.MAX_VALUE)
+                throw new IOException("Not a model checkpoint: " + file);
+
+            byte[] data = new byte[(int)length];
+            DataInputStream fileIn = new DataInputStream(new FileInputStream(file));
+            try {
+                fileIn.readFully(data);
+            } finally {
+                fileIn.close();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 8);
+            DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(data, data.length - 8, 8));
+            if (trailer.readLong() != crc.getValue())
+                throw new IOException("Model checkpoint checksum mismatch");
+
+            in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a model checkpoint: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported model checkpoint version " + version);
+
+            String writtenBy = in.readUTF();
+            if (!writtenBy.equals(agentClass))
+                throw new IOException("Model checkpoint was written by " + writtenBy + ", not " + agentClass);
+
+            int fileS = in.readInt();
+            int fileA = in.readInt();
+            if (fileS != S || fileA != A)
+                throw new IOException("Model checkpoint has " + fileS + " states and " + fileA +
+                                      " actions, the agent has " + S + " and " + A);
+        }
+
+        public DataInputStream in() {
+            return in;
+        }
+
+        public void read(double[] x) throws IOException {
+            for (int i = 0; i < x.length; i++)
+                x[i] = in.readDouble();
+        }
+
+        public void read(int[] x) throws IOException {
+            for (int i = 0; i < x.length; i++)
+                x[i] = in.readInt();
+        }
+
+        public void read(double[][] x) throws IOException {
+            for (double[] row : x)
+                read(row);
+        }
+
+        public void read(int[][] x) throws IOException {
+            for (int[] row : x)
+                read(row);
+        }
+
+        /* Replace the contents of counts[s][a] with the counts in the checkpoint */
+        public void readCounts(Map<Integer, Integer>[][] counts) throws IOException {
+            for (Map<Integer, Integer>[] row : counts)
+                for (Map<Integer, Integer> m : row)
+                    m.clear();
+
+            int pairs = in.readInt();
+            for (int k = 0; k < pairs; k++) {
+                int s = in.readInt();
+                int a = in.readInt();
+                int n = in.readInt();
+
+                Map<Integer, Integer> m = counts[s][a];
+                for (int i = 0; i < n; i++) {
+                    int next = in.readInt();
+                    m.put(next, in.readInt());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
+
+/**
+ * Maps the integer part of an observation to a single number, taking every
+ * discrete observation dimension of the task into account.
+ *
+ * The observation is read as a mixed-radix number with dimension 0 as the
+ * least significant digit, so an observation with values v[0..n-1] and ranges
+ * [min[d], max[d]] has the index sum of (v[d] - min[d]) * step[d]. For a
+ * single dimension starting at 0 this is just getInt(0).
+ *
+ * Tabular agents need a dense int index, which exists only if every range is
+ * finite (no special min/max status) and the product of the range sizes fits
+ * into an int; isDense() tells whether that is the case and size() gives the
+ * table size. key() always works: it is the exact index if the product fits
+ * into a long and a 64-bit hash of the observation otherwise, so agents that
+ * store values in a hash table (see LongRowTable) can use it as a fallback.
+ *
+ * None of the methods allocate.
+ */
+public class ObservationIndexer {
+
+    private final int dims;
+    private final int[] mins;
+    private final long[] steps;
+
+    // Number of distinct observations, or -1 if it is infinite or does not fit into a long
+    private final long count;
+
+    public ObservationIndexer(TaskSpec ts) {
+        dims = ts.getNumDiscreteObsDims();
+        mins = new int[dims];
+        steps = new long[dims];
+
+        long product = 1;
+        for (int d = 0; d < dims; d++) {
+            IntRange range = ts.getDiscreteObservationRange(d);
+
+            if (range.hasSpecialMinStatus() || range.hasSpecialMaxStatus()) {
+                product = -1;
+                break;
+            }
+
+            mins[d] = range.getMin();
+            steps[d] = product;
+
+            long size = (long)range.getMax() - range.getMin() + 1;
+            if (product > Long.MAX_VALUE / size) {
+                product = -1;
+                break;
+            }
+            product *= size;
+        }
+        count = product;
+    }
+
+    public int dims() {
+        return dims;
+    }
+
+    /* True if every observation has an index in 0 .. size() - 1 */
+    public boolean isDense() {
+        return count >= 0 && count <= Integer.MAX_VALUE;
+    }
+
+    /* True if key() is an exact encoding rather than a hash */
+    public boolean hasExactKeys() {
+        return count >= 0;
+    }
+
+    /* The number of distinct observations, -1 if it is infinite or does not fit into a long */
+    public long count() {
+        return count;
+    }
+
+    /* The size of a table indexed by index() */
+    public int size() {
+        if (!isDense())
+            throw new IllegalStateException("Observation space is too large for a dense index: " +
+                                            (count < 0 ? "unbounded or over 2^63" : Long.toString(count)));
+        return (int)count;
+    }
+
+    /* The dense index of an observation, only valid if isDense() */
+    public int index(Observation o) {
+        if (dims == 1)
+            return (int)((long)o.getInt(0) - mins[0]);
+
+        long index = 0;
+        for (int d = 0; d < dims; d++)
+            index += ((long)o.getInt(d) - mins[d]) * steps[d];
+
+        return (int)index;
+    }
+
+    /* The dense index of a one dimensional observation with the given value,
+     * as exchanged by batch environments */
+    public int index(int value) {
+        assert (dims == 1) : "index(int) needs a one dimensional observation, not " + dims;
+        return (int)((long)value - mins[0]);
+    }
+
+    /* The value of a one dimensional observation with the given index */
+    public int value(int index) {
+        assert (dims == 1) : "value(int) needs a one dimensional observation, not " + dims;
+        return index + mins[0];
+    }
+
+    /* The exact index of an observation if hasExactKeys(), otherwise a 64-bit hash */
+    public long key(Observation o) {
+        if (count >= 0) {
+            long index = 0;
+            for (int d = 0; d < dims; d++)
+                index += ((long)o.getInt(d) - mins[d]) * steps[d];
+            return index;
+        }
+
+        long h = 0x27D4EB2F165667C5L + dims;
+        for (int d = 0; d < o.getNumInts(); d++) {
+            h ^= o.getInt(d) * 0xC2B2AE3D27D4EB4FL;
+            h = Long.rotateLeft(h, 27) * 0x9E3779B185EBCA87L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+
+        return h;
+    }
+}
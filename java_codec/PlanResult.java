@@ -0,0 +1,86 @@
+/**
+ * The outcome of MacroActionEnvironment.executePlan.
+ *
+ * The caller allocates a result once and passes it to every call. If rewards
+ * is set, the reward of every executed step is stored in it as well; it must
+ * have room for the whole plan.
+ */
+public class PlanResult {
+
+    /* Every action of the plan was executed */
+    public static final int COMPLETED = 0;
+    /* The episode ended, after the last executed step */
+    public static final int TERMINAL = 1;
+    /* The observation after the last executed step was not the expected one */
+    public static final int DEVIATED = 2;
+
+    public int steps;
+    public double discountedReward;
+    public int observation;
+    public int stopReason;
+    public double[] rewards;
+
+    public PlanResult() {
+    }
+
+    public PlanResult(int maxLength) {
+        rewards = new double[maxLength];
+    }
+
+    public void reset() {
+        steps = 0;
+        discountedReward = 0;
+        stopReason = COMPLETED;
+    }
+
+    public String toString() {
+        return steps + " " + discountedReward + " " + observation + " " +
+               (stopReason == COMPLETED ? "completed" : stopReason == TERMINAL ? "terminal" : "deviated");
+    }
+
+    /**
+     * Handle the env message 'execute-plan GAMMA A1 A2 ... [expect O1 O2 ...]'
+     * for env: execute the actions, checking the observations after the
+     * first steps if they are given, and answer with the steps executed, the
+     * discounted reward, the final observation and the stop reason.
+     */
+    static String executeMessage(MacroActionEnvironment env, String message) {
+        return executeMessage(env, message, Integer.MAX_VALUE);
+    }
+
+    /* As above, for an environment whose actions must be in 0 .. numActions - 1;
+     * a plan with any other action is refused before a step is taken.
+     */
+    static String executeMessage(MacroActionEnvironment env, String message, int numActions) {
+        String[] tokens = message.trim().split(" +");
+        try {
+            double gamma = Double.parseDouble(tokens[1]);
+
+            int expectAt = tokens.length;
+            for (int i = 2; i < tokens.length; i++)
+                if (tokens[i].equals("expect"))
+                    expectAt = i;
+
+            int[] actions = new int[expectAt - 2];
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = Integer.parseInt(tokens[2 + i]);
+                if (numActions != Integer.MAX_VALUE && (actions[i] < 0 || actions[i] >= numActions))
+                    return "Could not execute the plan: " + message + " :: action " + actions[i] +
+                           " is not in 0.." + (numActions - 1);
+            }
+
+            int[] expected = null;
+            if (expectAt < tokens.length) {
+                expected = new int[actions.length];
+                for (int i = 0; i < expected.length; i++)
+                    expected[i] = expectAt + 1 + i < tokens.length ? Integer.parseInt(tokens[expectAt + 1 + i]) : -1;
+            }
+
+            PlanResult result = new PlanResult();
+            env.executePlan(actions, expected, actions.length, gamma, result);
+            return result.toString();
+        } catch (RuntimeException ex) {
+            return "Could not execute the plan: " + message + " :: " + ex;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.io.IOException;
+
+/**
+ * Storage of a tabular state-action value function Q[action][state].
+ *
+ * The Sarsa agents do all their table accesses through this interface, so
+ * the values can live on the heap (HeapQTable) or in a memory mapped file
+ * (MappedQTable) without changing the learning code. The bulk read and write
+ * methods copy a run of consecutive states of one action and are used for
+ * snapshots and checkpoints.
+ */
+public interface QTable {
+
+    int numActions();
+
+    int numStates();
+
+    double get(int action, int state);
+
+    void set(int action, int state, double value);
+
+    /* The action with the highest value in a state, the first one on ties */
+    int maxAction(int state);
+
+    /* Copy Q[action][state .. state + count - 1] into dst[offset ..] */
+    void read(int action, int state, double[] dst, int offset, int count);
+
+    /* Copy src[offset ..] into Q[action][state .. state + count - 1] */
+    void write(int action, int state, double[] src, int offset, int count);
+
+    /* Make the current values durable, if the storage is persistent */
+    void flush() throws IOException;
+
+    /* Flush and release the storage; the table must not be used afterwards */
+    void close() throws IOException;
+}
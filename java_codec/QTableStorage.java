@@ -0,0 +1,88 @@
+import java.io.File;
+import java.io.IOException;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+
+/**
+ * Where a Sarsa agent keeps its QTable: on the heap (HeapQTable), off-heap
+ * in a memory mapped snapshot file (MappedQTable), or on the heap as 16-bit
+ * fixed point (QuantizedQTable).
+ *
+ * The agents pass their set_table_storage messages to configure() and
+ * allocate their table with create(), so a new setting takes effect at the
+ * next agent_init.
+ */
+public class QTableStorage {
+
+    // "heap", "mapped" in the file tableFile, or "quantized" with values
+    // bounded over at most tableHorizon steps
+    private String tableStorage = "heap";
+    private String tableFile = null;
+    private int tableHorizon = 100;
+
+    /**
+     * Handle 'set_table_storage heap', 'set_table_storage mapped FILE' or
+     * 'set_table_storage quantized [HORIZON]'. The mapped file is reused if
+     * it exists, and quantized values are scaled to the reward range over at
+     * most HORIZON steps.
+     * @param message
+     * @return the answer to the message
+     */
+    public String configure(String message) {
+        String[] parts = message.split(" ");
+        if (parts.length < 2)
+            return "set_table_storage needs heap, mapped or quantized";
+        if (!parts[1].equals("heap") && !parts[1].equals("mapped") && !parts[1].equals("quantized"))
+            return "unknown table storage: " + parts[1];
+        if (parts[1].equals("mapped") && parts.length < 3)
+            return "set_table_storage mapped needs a file name";
+
+        int horizon = tableHorizon;
+        if (parts[1].equals("quantized") && parts.length > 2) {
+            try {
+                horizon = Integer.parseInt(parts[2]);
+            } catch (NumberFormatException ex) {
+                return "bad quantized horizon: " + parts[2];
+            }
+        }
+
+        tableStorage = parts[1];
+        tableFile = parts[1].equals("mapped") ? parts[2] : null;
+        tableHorizon = horizon;
+        return "message understood, " + tableStorage + " table storage from next init";
+    }
+
+    /**
+     * Allocate a table in the configured storage, falling back to the heap
+     * if the mapped file cannot be used.
+     * @param ts the task, for the reward range of a quantized table
+     * @param owner the agent class, recorded in a mapped file
+     * @param numActions
+     * @param numStates
+     * @return
+     */
+    public QTable create(TaskSpec ts, String owner, int numActions, int numStates) {
+        if (tableStorage.equals("quantized"))
+            return new QuantizedQTable(numActions, numStates, QuantizedQTable.valueBound(ts, tableHorizon));
+        if (tableStorage.equals("mapped")) {
+            try {
+                return new MappedQTable(new File(tableFile), owner, numActions, numStates);
+            } catch (IOException ex) {
+                System.err.println("Problem mapping value function file: " + tableFile + " :: " + ex +
+                                   ", using the heap");
+            }
+        }
+        return new HeapQTable(numActions, numStates);
+    }
+
+    /* Release a table, writing it back if it is persistent; null is ignored */
+    public static void close(QTable table) {
+        if (table == null)
+            return;
+
+        try {
+            table.close();
+        } catch (IOException ex) {
+            System.err.println("Problem closing value function :: " + ex);
+        }
+    }
+}
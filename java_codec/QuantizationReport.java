@@ -0,0 +1,170 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+
+/**
+ * Compares the memory and the accuracy of the double and the quantized 16-bit
+ * value function of SampleSarsaAgent, on Mines and on larger generated grid
+ * worlds.
+ *
+ * For every world and storage the agent is trained for a number of episodes
+ * and its greedy policy is then evaluated with learning and exploration
+ * frozen. For the quantized storages the report also shows the quantization
+ * step and the representation error: the final double tables of the heap runs
+ * are rounded with the same scale, and the largest absolute difference and
+ * the fraction of visited states whose greedy action is unchanged are given.
+ *
+ * Usage: java QuantizationReport [runs] [trainingEpisodes]
+ */
+public class QuantizationReport {
+
+    private static final int EVALUATION_EPISODES = 100;
+
+    private static final String[] STORAGES = {"heap", "quantized 100", "quantized 20"};
+
+    private final int runs;
+    private final int episodes;
+
+    public QuantizationReport(int runs, int episodes) {
+        this.runs = runs;
+        this.episodes = episodes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int episodes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        QuantizationReport report = new QuantizationReport(runs, episodes);
+        System.out.printf("%d runs, %d training episodes, greedy return over %d episodes%n%n",
+                          runs, episodes, EVALUATION_EPISODES);
+        System.out.printf("%-14s %-15s %8s %10s %8s %17s %10s %8s%n", "world", "storage", "B/entry",
+                          "table KB", "step", "greedy return", "max |err|", "argmax");
+
+        report.world("mines 6x18", null);
+        report.world("grid 16x16", GridWorldGenerator.generate(16, 16, 0.10, 0.04, 0, 1));
+        report.world("grid 32x32", GridWorldGenerator.generate(32, 32, 0.10, 0.04, 0, 2));
+        report.world("grid 64x64", GridWorldGenerator.generate(64, 64, 0.10, 0.04, 0, 3));
+    }
+
+    private void world(String name, int[][] map) throws IOException {
+        File[] heapTables = new File[runs];
+        TaskSpec ts = null;
+
+        for (String storage : STORAGES) {
+            double[] returns = new double[runs];
+            long tableBytes = 0;
+
+            for (int run = 0; run < runs; run++) {
+                SampleSarsaAgent agent = new SampleSarsaAgent();
+                SampleMinesEnvironment env = map == null ? new SampleMinesEnvironment() : new SampleMinesEnvironment(map);
+                RLGlue.setGlue(new LocalGlue(env, agent));
+
+                agent.agent_message("set_table_storage " + storage);
+                ts = new TaskSpec(RLGlue.RL_init());
+                int numStates = new ObservationIndexer(ts).size();
+                int numActions = ts.getDiscreteActionRange(0).getMax() + 1;
+                int limit = 4 * numStates;
+                tableBytes = (long)numStates * numActions * (storage.equals("heap") ? 8 : 2);
+
+                for (int e = 0; e < episodes; e++)
+                    RLGlue.RL_episode(limit);
+
+                agent.agent_message("freeze learning");
+                agent.agent_message("freeze exploring");
+                double sum = 0;
+                for (int e = 0; e < EVALUATION_EPISODES; e++) {
+                    RLGlue.RL_episode(limit);
+                    sum += RLGlue.RL_return();
+                }
+                returns[run] = sum / EVALUATION_EPISODES;
+
+                if (storage.equals("heap")) {
+                    heapTables[run] = File.createTempFile("qreport", ".rlvf");
+                    heapTables[run].deleteOnExit();
+                    quietMessage(agent, "save_policy " + heapTables[run].getPath());
+                }
+                RLGlue.RL_cleanup();
+            }
+
+            String entryBytes = storage.equals("heap") ? "8" : "2";
+            if (storage.equals("heap")) {
+                System.out.printf("%-14s %-15s %8s %10.1f %8s %17s %10s %8s%n", name, storage, entryBytes,
+                                  tableBytes / 1024.0, "-", meanAndDeviation(returns), "-", "-");
+            } else {
+                int horizon = Integer.parseInt(storage.split(" ")[1]);
+                double bound = QuantizedQTable.valueBound(ts, horizon);
+                double[] error = representationError(heapTables, ts, bound);
+                System.out.printf("%-14s %-15s %8s %10.1f %8.4f %17s %10.4f %7.1f%%%n", name, storage, entryBytes,
+                                  tableBytes / 1024.0, bound / Short.MAX_VALUE, meanAndDeviation(returns),
+                                  error[0], 100 * error[1]);
+            }
+        }
+    }
+
+    /* Largest absolute error and greedy action agreement over the visited
+     * states when the saved heap tables are rounded to the quantized scale.
+     */
+    private double[] representationError(File[] tables, TaskSpec ts, double bound) throws IOException {
+        int numStates = new ObservationIndexer(ts).size();
+        int numActions = ts.getDiscreteActionRange(0).getMax() + 1;
+        String agentClass = SampleSarsaAgent.class.getName();
+
+        double maxError = 0;
+        int visited = 0;
+        int agree = 0;
+
+        for (File file : tables) {
+            HeapQTable exact = new HeapQTable(numActions, numStates);
+            QuantizedQTable rounded = new QuantizedQTable(numActions, numStates, bound);
+            TableSnapshot.read(file, agentClass, exact);
+            TableSnapshot.read(file, agentClass, rounded);
+
+            for (int s = 0; s < numStates; s++) {
+                boolean seen = false;
+                for (int a = 0; a < numActions; a++) {
+                    maxError = Math.max(maxError, Math.abs(exact.get(a, s) - rounded.get(a, s)));
+                    seen |= exact.get(a, s) != 0;
+                }
+                if (seen) {
+                    visited++;
+                    if (exact.maxAction(s) == rounded.maxAction(s))
+                        agree++;
+                }
+            }
+        }
+
+        return new double[]{maxError, visited == 0 ? 1 : (double)agree / visited};
+    }
+
+    private static String meanAndDeviation(double[] x) {
+        double mean = 0;
+        for (double v : x)
+            mean += v;
+        mean /= x.length;
+
+        double var = 0;
+        for (double v : x)
+            var += (v - mean) * (v - mean);
+        double sd = x.length > 1 ? Math.sqrt(var / (x.length - 1)) : 0;
+
+        return String.format("%8.2f +- %6.2f", mean, sd);
+    }
+
+    // SampleSarsaAgent reports saving on standard output
+    private static void quietMessage(SampleSarsaAgent agent, String message) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        }));
+        try {
+            agent.agent_message(message);
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
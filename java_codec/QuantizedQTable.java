@@ -0,0 +1,122 @@
+import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
+
+/**
+ * QTable that stores each value as a 16-bit fixed point number, a quarter of
+ * the memory of a double table.
+ *
+ * A value v is stored as the short round(v / step), with step = bound / 32767,
+ * so values in [-bound, bound] are represented with an absolute error of at
+ * most step / 2 and larger values saturate. valueBound derives the bound from
+ * the reward range and discount factor of the task: no return can exceed
+ * max(|rmin|, |rmax|) / (1 - gamma) in magnitude. For gamma = 1 (or close to
+ * it) that is capped at a horizon of the given number of steps.
+ *
+ * The agents still compute their updates in double precision; only the
+ * result is rounded. set rounds stochastically (up with probability equal to
+ * the fraction of a step that is left over), so the rounding is unbiased and
+ * a learning rate that moves a value by less than one step still moves it
+ * on average. Bulk writes, used when loading snapshots, round to nearest.
+ */
+public class QuantizedQTable implements QTable {
+
+    private static final int MAX_CODE = Short.MAX_VALUE;
+
+    private final short[][] values;
+    private final int numActions;
+    private final int numStates;
+    private final double step;
+    private final double inverseStep;
+
+    // State of the xorshift generator used for stochastic rounding
+    private long seed = 0x2545F4914F6CDD1DL;
+
+    public QuantizedQTable(int numActions, int numStates, double bound) {
+        if (!(bound > 0) || Double.isInfinite(bound))
+            throw new IllegalArgumentException("Quantization bound must be positive and finite: " + bound);
+
+        this.numActions = numActions;
+        this.numStates = numStates;
+        values = new short[numActions][numStates];
+
+        step = bound / MAX_CODE;
+        inverseStep = MAX_CODE / bound;
+    }
+
+    /* The largest magnitude of a value for the task, looking at most horizon
+     * steps ahead when the discount factor does not bound the return.
+     */
+    public static double valueBound(TaskSpec ts, int horizon) {
+        double rMax = Math.max(Math.abs(ts.getRewardMin()), Math.abs(ts.getRewardMax()));
+        if (Double.isNaN(rMax) || Double.isInfinite(rMax) || rMax == 0)
+            rMax = 1;
+
+        double gamma = ts.getDiscountFactor();
+        double steps = gamma < 1 ? Math.min(1 / (1 - gamma), horizon) : horizon;
+
+        return rMax * steps;
+    }
+
+    /* The distance between two representable values */
+    public double step() {
+        return step;
+    }
+
+    public int numActions() {
+        return numActions;
+    }
+
+    public int numStates() {
+        return numStates;
+    }
+
+    public double get(int action, int state) {
+        return values[action][state] * step;
+    }
+
+    public void set(int action, int state, double value) {
+        double x = value * inverseStep;
+        double floor = Math.floor(x);
+
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        double u = (seed >>> 11) * 0x1.0p-53;
+
+        values[action][state] = clamp(u < x - floor ? floor + 1 : floor);
+    }
+
+    public int maxAction(int state) {
+        int maxIndex = 0;
+        for (int a = 1; a < numActions; a++)
+            if (values[a][state] > values[maxIndex][state])
+                maxIndex = a;
+
+        return maxIndex;
+    }
+
+    public void read(int action, int state, double[] dst, int offset, int count) {
+        short[] row = values[action];
+        for (int i = 0; i < count; i++)
+            dst[offset + i] = row[state + i] * step;
+    }
+
+    public void write(int action, int state, double[] src, int offset, int count) {
+        short[] row = values[action];
+        for (int i = 0; i < count; i++)
+            row[state + i] = clamp(Math.rint(src[offset + i] * inverseStep));
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+
+    private static short clamp(double code) {
+        if (code > MAX_CODE)
+            return MAX_CODE;
+        if (code < -MAX_CODE)
+            return -MAX_CODE;
+        return (short)code;
+    }
+}
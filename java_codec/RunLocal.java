@@ -0,0 +1,53 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+
+/**
+ * Runs any agent, environment and experiment together in one JVM, without
+ * sockets, as RunAllSkeletonNoSockets does for the skeleton sample.
+ *
+ * The agent and the environment are created by class name with their no
+ * argument constructors and joined by a LocalGlue, and the experiment's main
+ * method is called with the remaining arguments. The three classes are
+ * unchanged, so they still work over the network.
+ *
+ * Usage: java RunLocal [AgentClass [EnvironmentClass [ExperimentClass [args ...]]]]
+ * with defaults MixedModelAgent, SampleMinesEnvironment and SampleExperiment.
+ */
+public class RunLocal {
+
+    public static void main(String[] args) throws Exception {
+        String agentClass = args.length > 0 ? args[0] : "MixedModelAgent";
+        String envClass = args.length > 1 ? args[1] : "SampleMinesEnvironment";
+        String experimentClass = args.length > 2 ? args[2] : "SampleExperiment";
+        String[] experimentArgs = new String[Math.max(0, args.length - 3)];
+        System.arraycopy(args, Math.min(3, args.length), experimentArgs, 0, experimentArgs.length);
+
+        AgentInterface agent = (AgentInterface)Class.forName(agentClass).getDeclaredConstructor().newInstance();
+        EnvironmentInterface env = (EnvironmentInterface)Class.forName(envClass).getDeclaredConstructor().newInstance();
+        RLGlue.setGlue(new LocalGlue(env, agent));
+
+        runExperiment(experimentClass, experimentArgs);
+    }
+
+    /**
+     * Call the main method of an experiment class, passing on what it throws.
+     * @param experimentClass
+     * @param args
+     * @throws Exception
+     */
+    static void runExperiment(String experimentClass, String[] args) throws Exception {
+        Method main = Class.forName(experimentClass).getMethod("main", String[].class);
+        try {
+            main.invoke(null, (Object)args);
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception)
+                throw (Exception)cause;
+            throw (Error)cause;
+        }
+    }
+}
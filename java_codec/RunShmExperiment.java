@@ -0,0 +1,35 @@
+import org.rlcommunity.rlglue.codec.LocalGlue;
+import org.rlcommunity.rlglue.codec.RLGlue;
+
+/**
+ * Runs an experiment program against an agent and an environment in other
+ * processes through the shared memory transport instead of sockets: start
+ * ShmAgentLoader and ShmEnvironmentLoader in their own processes, in any
+ * order, and this in place of the experiment and rl_glue.exe.
+ *
+ * The experiment's main method is called with the remaining arguments, with
+ * RLGlue set to a LocalGlue over the two proxies; the loaders are stopped
+ * when it returns.
+ *
+ * Usage: java RunShmExperiment [ExperimentClass [args ...]]
+ * with default SampleExperiment.
+ */
+public class RunShmExperiment {
+
+    public static void main(String[] args) throws Exception {
+        String experimentClass = args.length > 0 ? args[0] : "SampleExperiment";
+        String[] experimentArgs = new String[Math.max(0, args.length - 1)];
+        System.arraycopy(args, Math.min(1, args.length), experimentArgs, 0, experimentArgs.length);
+
+        ShmAgentProxy agent = new ShmAgentProxy();
+        ShmEnvironmentProxy env = new ShmEnvironmentProxy();
+        RLGlue.setGlue(new LocalGlue(env, agent));
+
+        try {
+            RunLocal.runExperiment(experimentClass, experimentArgs);
+        } finally {
+            agent.close();
+            env.close();
+        }
+    }
+}
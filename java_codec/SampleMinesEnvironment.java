@@ -24,8 +24,8 @@
  *
  */
 
-import java.util.Random;
-import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import java.io.File;
+import java.io.IOException;
 import org.rlcommunity.rlglue.codec.types.Action;
 import org.rlcommunity.rlglue.codec.types.Observation;
 import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
@@ -56,10 +56,21 @@ import org.rlcommunity.rlglue.codec.taskspec.ranges.DoubleRange;
  * file.  This separation means that SampleMinesEnvironment doesn't need to know
  * much about the dynamics of the world, and WorldDescription doesn't need to know
  * much about RL-Glue.
+ *
+ * env_start and env_step return the same Observation and
+ * Reward_observation_terminal objects every time, so stepping allocates
+ * nothing.  That is safe in process with LocalGlue, where the agent sees each
+ * result before the next step and duplicates what it keeps.  The
+ * 'copy-results on' message (used by main, for the socket codec) goes back to
+ * new objects on every call.
+ *
+ * As a SimulatedEnvironment the state is the agent's state number, and
+ * copies share the compiled WorldDescription tables.  As a
+ * MacroActionEnvironment it runs whole plans in one call.
  * 
  * @author Brian Tanner
  */
-public class SampleMinesEnvironment implements EnvironmentInterface {
+public class SampleMinesEnvironment implements SimulatedEnvironment, MacroActionEnvironment {
 
     static final int WORLD_FREE = 0;
     static final int WORLD_OBSTACLE = 1;
@@ -73,12 +84,32 @@ public class SampleMinesEnvironment implements EnvironmentInterface {
     boolean fixedStartState = false;
     int startRow = 0;
     int startCol = 0;
+    //The map to use instead of the built in one, or null
+    int[][] customMap = null;
+    //The probability that a move goes in a perpendicular direction instead
+    double slipProbability = 0.0;
+    //The objects returned by env_start and env_step, unless copyResults is set
+    boolean copyResults = false;
+    private final Observation theObservation = new Observation(1, 0, 0);
+    private final Reward_observation_terminal theRewardObs = new Reward_observation_terminal();
+
+    public SampleMinesEnvironment() {
+    }
+
+    /**
+     * Use a different map, made of the WORLD_* constants, instead of the
+     * built in one.
+     * @param worldMap
+     */
+    public SampleMinesEnvironment(int[][] worldMap) {
+        this.customMap = worldMap;
+    }
 
     public String env_init() {
-        //This is hard coded, but there is no reason it couldn't be automatically
-        //generated or read from a file.
+        //Unless a map was given to the constructor, or generated or loaded
+        //through a message, this is hard coded.
 
-        int world_map[][] = new int[][]{
+        int world_map[][] = customMap != null ? customMap : new int[][]{
             {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
             {1, 0, 0, 0, 0, 0, 0, 2, 2, 0, 0, 0, 0, 0, 0, 0, 0, 1},
             {1, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1},
@@ -89,6 +120,7 @@ public class SampleMinesEnvironment implements EnvironmentInterface {
 
 
         theWorld = new WorldDescription(world_map);
+        theWorld.setSlipProbability(slipProbability);
 
 
         //Create a task spec programmatically.  This task spec encodes that state, action, and reward space for the problem.
@@ -99,7 +131,7 @@ public class SampleMinesEnvironment implements EnvironmentInterface {
         theTaskSpecObject.setEpisodic();
         theTaskSpecObject.setDiscountFactor(1.0d);
 
-        //Specify that there will be an integer observation [0,107] for the state
+        //Specify that there will be an integer observation [0,rows*cols-1] for the state
         theTaskSpecObject.addDiscreteObservation(new IntRange(0, theWorld.getNumStates() - 1));
         //Specify that there will be an integer action [0,3]
         theTaskSpecObject.addDiscreteAction(new IntRange(0, 3));
@@ -127,9 +159,7 @@ public class SampleMinesEnvironment implements EnvironmentInterface {
         } else {
             theWorld.setRandomAgentState();
         }
-        Observation theObservation = new Observation(1, 0, 0);
-        theObservation.setInt(0, theWorld.getState());
-        return theObservation;
+        return observation();
     }
 
     /**
@@ -146,20 +176,75 @@ public class SampleMinesEnvironment implements EnvironmentInterface {
 
         theWorld.updatePosition(thisAction.getInt(0));
 
-
-        Observation theObservation = new Observation(1, 0, 0);
-        theObservation.setInt(0, theWorld.getState());
-        Reward_observation_terminal RewardObs = new Reward_observation_terminal();
-        RewardObs.setObservation(theObservation);
+        Reward_observation_terminal RewardObs = copyResults ? new Reward_observation_terminal() : theRewardObs;
+        RewardObs.setObservation(observation());
         RewardObs.setTerminal(theWorld.isTerminal());
         RewardObs.setReward(theWorld.getReward());
 
         return RewardObs;
     }
 
+    /* The observation of the current state, in a new object only in copy mode */
+    private Observation observation() {
+        Observation o = copyResults ? new Observation(1, 0, 0) : theObservation;
+        o.setInt(0, theWorld.getState());
+        return o;
+    }
+
     public void env_cleanup() {
     }
 
+    public int saveState() {
+        return theWorld.getState();
+    }
+
+    public void executePlan(int[] actions, int[] expected, int length, double gamma, PlanResult result) {
+        result.reset();
+        double discount = 1;
+
+        for (int i = 0; i < length; i++) {
+            theWorld.updatePosition(actions[i]);
+            double reward = theWorld.getReward();
+            int state = theWorld.getState();
+
+            if (result.rewards != null)
+                result.rewards[i] = reward;
+            result.discountedReward += discount * reward;
+            discount *= gamma;
+            result.steps++;
+
+            if (theWorld.isTerminal()) {
+                result.stopReason = PlanResult.TERMINAL;
+                break;
+            }
+            if (expected != null && expected[i] >= 0 && state != expected[i]) {
+                result.stopReason = PlanResult.DEVIATED;
+                break;
+            }
+        }
+
+        result.observation = theWorld.getState();
+    }
+
+    /**
+     * Put the agent in a state returned by saveState (any valid cell).
+     * @param state
+     */
+    public void restoreState(int state) {
+        theWorld.setState(state);
+    }
+
+    public SimulatedEnvironment copy() {
+        SampleMinesEnvironment theCopy = new SampleMinesEnvironment(customMap);
+        theCopy.fixedStartState = fixedStartState;
+        theCopy.startRow = startRow;
+        theCopy.startCol = startCol;
+        theCopy.slipProbability = slipProbability;
+        theCopy.copyResults = copyResults;
+        theCopy.theWorld = theWorld.copy();
+        return theCopy;
+    }
+
     public String env_message(String message) {
         /*	Message Description
          * 'set-random-start-state'
@@ -191,181 +276,138 @@ public class SampleMinesEnvironment implements EnvironmentInterface {
 			return "Message understood.  Printed the state.";
         }
 
-        return "SamplesMinesEnvironment(Java) does not understand your message.";
-    }
-
-    /**
-     * This is a trick we can use to make the agent easily loadable.
-     * @param args
-     */
-    public static void main(String[] args) {
-        EnvironmentLoader theLoader = new EnvironmentLoader(new SampleMinesEnvironment());
-        theLoader.run();
-    }
-}
-
-/**
- * This class holds all of the internal state information about the environment,
- * and manages the dynamics, state update, reward calculation, etc.
- * @author btanner
- */
-class WorldDescription {
-
-    private final int numRows;
-    private final int numCols;
-    public int agentRow;
-    public int agentCol;
-    private final int[][] theMap;
-    private Random randGen = new Random();
-
-    public WorldDescription(int[][] worldMap) {
-        this.theMap = worldMap;
-
-        this.numRows = theMap.length;
-        this.numCols = theMap[0].length;
-    }
-
-    public int getNumStates() {
-        return numRows * numCols;
-    }
-
-    /**
-     * Puts the agent into a random state.  Uses a generate and test method, in
-     * a loop, only accepts the state if it is valid and not terminal.
-     */
-    public void setRandomAgentState() {
-
-        int startRow = randGen.nextInt(numRows);
-        int startCol = randGen.nextInt(numCols);
-
-        while (isTerminal(startRow, startCol) || !isValid(startRow, startCol)) {
-            startRow = randGen.nextInt(numRows);
-            startCol = randGen.nextInt(numCols);
+        /*	Message Description
+         * 'generate-map ROWS COLS [OBSTACLES MINES GOALS [SEED]]'
+         * Action: Use a map made by GridWorldGenerator with the given size,
+         * cell densities (default 0.10 0.04 0) and seed (default 0) from the
+         * next env_init
+         */
+        if (message.startsWith("generate-map")) {
+            String[] theTokens = message.split(" ");
+            try {
+                int rows = Integer.parseInt(theTokens[1]);
+                int cols = Integer.parseInt(theTokens[2]);
+                double obstacles = theTokens.length > 3 ? Double.parseDouble(theTokens[3]) : 0.10;
+                double mines = theTokens.length > 4 ? Double.parseDouble(theTokens[4]) : 0.04;
+                double goals = theTokens.length > 5 ? Double.parseDouble(theTokens[5]) : 0.0;
+                long seed = theTokens.length > 6 ? Long.parseLong(theTokens[6]) : 0;
+                customMap = GridWorldGenerator.generate(rows, cols, obstacles, mines, goals, seed);
+            } catch (RuntimeException ex) {
+                return "Could not generate the map: " + ex.getMessage();
+            }
+            return "Message understood.  Using a generated " + customMap.length + "x" + customMap[0].length +
+                   " map from next init.";
         }
 
-        this.agentRow = startRow;
-        this.agentCol = startCol;
-    }
-
-    /**
-     * Convert the row/col state into a single number.
-     * @return
-     */
-    public int getState() {
-        return agentCol * numRows + agentRow;
-    }
-
-    /**
-     * Sets the agent current state to startRow,startCol.
-     * @param startRow
-     * @param startCol
-     * @return true if the state is valid and not terminal, otherwise
-     * return false.
-     */
-    boolean setAgentState(int startRow, int startCol) {
-        this.agentRow = startRow;
-        this.agentCol = startCol;
-
-        return isValid(startRow, startCol) && !isTerminal();
-    }
-
-    public boolean isTerminal() {
-        return isTerminal(agentRow, agentCol);
-    }
-
-    private boolean isTerminal(int row, int col) {
-        if (theMap[row][col] == SampleMinesEnvironment.WORLD_GOAL || theMap[row][col] == SampleMinesEnvironment.WORLD_MINE) {
-            return true;
+        /*	Message Description
+         * 'load-map FILE'
+         * Action: Use the map in FILE, written by GridWorldGenerator, from the
+         * next env_init
+         */
+        if (message.startsWith("load-map")) {
+            String fileName = message.substring("load-map".length()).trim();
+            try {
+                customMap = GridWorldGenerator.load(new File(fileName));
+            } catch (IOException ex) {
+                return "Could not load the map: " + ex.getMessage();
+            }
+            return "Message understood.  Using the map in " + fileName + " from next init.";
         }
-        return false;
-    }
 
-    private boolean isValid(int row, int col) {
-        boolean valid = false;
-        if (row < numRows && row >= 0 && col < numCols && col >= 0) {
-            if (theMap[row][col] != SampleMinesEnvironment.WORLD_OBSTACLE) {
-                valid = true;
+        /*	Message Description
+         * 'save-map FILE'
+         * Action: Write the current map to FILE in the GridWorldGenerator format
+         */
+        if (message.startsWith("save-map")) {
+            String fileName = message.substring("save-map".length()).trim();
+            try {
+                GridWorldGenerator.save(theWorld.getMap(), new File(fileName));
+            } catch (IOException ex) {
+                return "Could not save the map: " + ex.getMessage();
             }
+            return "Message understood.  Saved the map to " + fileName + ".";
         }
-        return valid;
-    }
 
-    /**
-     * Calculate the reward for the current agent state.
-     * @return
-     */
-    public double getReward() {
-        if (theMap[agentRow][agentCol] == SampleMinesEnvironment.WORLD_GOAL) {
-            return 10.0f;
+        /*	Message Description
+         * 'use-default-map'
+         * Action: Go back to the built in map from the next env_init
+         */
+        if (message.startsWith("use-default-map")) {
+            customMap = null;
+            return "Message understood.  Using the default map from next init.";
         }
 
-        if (theMap[agentRow][agentCol] == SampleMinesEnvironment.WORLD_MINE) {
-            return -100.0f;
+        /*	Message Description
+         * 'set-slip P'
+         * Action: With probability P each move goes to one of the two
+         * perpendicular directions instead (P/2 each).  0 is deterministic.
+         */
+        if (message.startsWith("set-slip")) {
+            String[] theTokens = message.split(" ");
+            double p;
+            try {
+                p = Double.parseDouble(theTokens[1]);
+            } catch (RuntimeException ex) {
+                return "Could not parse the slip probability: " + message;
+            }
+            if (!(p >= 0 && p <= 1))
+                return "The slip probability must be in [0,1]: " + p;
+            slipProbability = p;
+            if (theWorld != null)
+                theWorld.setSlipProbability(p);
+            return "Message understood.  Slip probability is " + p + ".";
         }
 
-        return -1.0f;
-    }
-
-    public void updatePosition(int theAction) {
-        /* When the move would result in hitting an obstacles, the agent simply doesn't move */
-        int newRow = agentRow;
-        int newCol = agentCol;
-
-
-        if (theAction == 0) {/*move down*/
-            newCol = agentCol - 1;
-        }
-        if (theAction == 1) { /*move up*/
-            newCol = agentCol + 1;
-        }
-        if (theAction == 2) {/*move left*/
-            newRow = agentRow - 1;
+        /*	Message Description
+         * 'copy-results on' or 'copy-results off'
+         * Action: Return new observation and result objects from every call
+         * (on), or reuse the same ones (off, the default)
+         */
+        if (message.startsWith("copy-results")) {
+            copyResults = message.endsWith(" on");
+            return "Message understood.  " + (copyResults ? "Copying" : "Reusing") + " results.";
         }
-        if (theAction == 3) {/*move right*/
-            newRow = agentRow + 1;
+
+        /*	Message Description
+         * 'save-state'
+         * Action: Answer with the current state, for restore-state
+         */
+        if (message.startsWith("save-state")) {
+            return Integer.toString(saveState());
         }
 
+        /*	Message Description
+         * 'restore-state N'
+         * Action: Put the agent back in state N, as answered by save-state
+         */
+        if (message.startsWith("restore-state")) {
+            try {
+                restoreState(Integer.parseInt(message.split(" ")[1]));
+            } catch (RuntimeException ex) {
+                return "Could not restore the state: " + ex.getMessage();
+            }
+            return "Message understood.  Restored the state.";
+        }
 
-        /*Check if new position is out of bounds or inside an obstacle */
-        if (isValid(newRow, newCol)) {
-            agentRow = newRow;
-            agentCol = newCol;
+        /*	Message Description
+         * 'execute-plan GAMMA A1 A2 ... [expect O1 O2 ...]'
+         * Action: Execute the actions, see MacroActionEnvironment
+         */
+        if (message.startsWith("execute-plan")) {
+            return PlanResult.executeMessage(this, message);
         }
+
+        return "SamplesMinesEnvironment(Java) does not understand your message.";
     }
 
     /**
-     * Print out the current state to the screen
+     * This is a trick we can use to make the agent easily loadable.
+     * @param args
      */
-    void print_state() {
-        System.out.printf("Agent is at: %d,%d\n", agentRow, agentCol);
-        System.out.printf("Columns:0-10                10-17\n");
-        System.out.printf("Col    ");
-        for (int col = 0; col < 18; col++) {
-            System.out.printf("%d ", col % 10);
-        }
-
-        for (int row = 0; row < 6; row++) {
-            System.out.printf("\nRow: %d ", row);
-
-            for (int col = 0; col < 18; col++) {
-                if (agentRow == row && agentCol == col) {
-                    System.out.printf("A ");
-                } else {
-                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_GOAL) {
-                        System.out.printf("G ");
-                    }
-                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_MINE) {
-                        System.out.printf("M ");
-                    }
-                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_OBSTACLE) {
-                        System.out.printf("* ");
-                    }
-                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_FREE) {
-                        System.out.printf("  ");
-                    }
-                }
-            }
-        }
-        System.out.printf("\n");
+    public static void main(String[] args) {
+        SampleMinesEnvironment theEnvironment = new SampleMinesEnvironment();
+        theEnvironment.env_message("copy-results on");
+        EnvironmentLoader theLoader = new EnvironmentLoader(theEnvironment);
+        theLoader.run();
     }
 }
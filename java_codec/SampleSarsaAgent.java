@@ -23,12 +23,7 @@
  *
  */
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Random;
 import org.rlcommunity.rlglue.codec.AgentInterface;
@@ -46,12 +41,34 @@ their raw form, as structures.  This code could be simplified and you
 could store them just as ints.
  * @author Brian Tanner
  */
-public class SampleSarsaAgent implements AgentInterface {
+public class SampleSarsaAgent implements AgentInterface, BatchAgentInterface {
 
     private Random randGenerator = new Random();
     private Action lastAction;
     private Observation lastObservation;
-    private double[][] valueFunction = null;
+    private ObservationIndexer observationIndexer;
+    // The slots of a batch environment, and the SARSA update they learn with
+    private SarsaBatch batch;
+    private final SarsaBatch.Learner batchLearner = new SarsaBatch.Learner() {
+        public int egreedy(int theState) {
+            return SampleSarsaAgent.this.egreedy(theState);
+        }
+
+        public void update(int lastStateInt, int lastActionInt, double reward, int newStateInt, int newActionInt,
+                           boolean terminal) {
+            if (!policyFrozen) {
+                double Q_sa = valueFunction.get(lastActionInt, lastStateInt);
+                double target = reward;
+                if (!terminal)
+                    target += sarsa_gamma * valueFunction.get(newActionInt, newStateInt);
+
+                checkpointer.beforeWrite(lastActionInt, lastStateInt);
+                valueFunction.set(lastActionInt, lastStateInt, Q_sa + sarsa_stepsize * (target - Q_sa));
+            }
+            countStep();
+        }
+    };
+    private QTable valueFunction = null;
     private double sarsa_stepsize = 0.1;
     private double sarsa_epsilon = 0.1;
     private double sarsa_gamma = 1.0;
@@ -60,6 +77,18 @@ public class SampleSarsaAgent implements AgentInterface {
     private boolean policyFrozen = false;
     private boolean exploringFrozen = false;
 
+    // Background checkpointing: every checkpointInterval steps (0 for never) to checkpointFile,
+    // or into the directory checkpointFile with a new base every compactEvery deltas
+    private TableCheckpointer checkpointer = null;
+    private int checkpointInterval = 0;
+    private String checkpointFile = null;
+    private boolean incrementalCheckpoints = false;
+    private int compactEvery = 20;
+    private long steps = 0;
+
+    // Where the value function lives, set with 'set_table_storage'
+    private QTableStorage tableStorage = new QTableStorage();
+
     /**
      * Parse the task spec, make sure it is only 1 integer observation and
      * action, and then allocate the valueFunction.
@@ -70,11 +99,10 @@ public class SampleSarsaAgent implements AgentInterface {
         TaskSpec theTaskSpec = new TaskSpec(taskSpecification);
 
         /* Lots of assertions to make sure that we can handle this problem.  */
-        assert (theTaskSpec.getNumDiscreteObsDims() == 1);
         assert (theTaskSpec.getNumContinuousObsDims() == 0);
-        assert (!theTaskSpec.getDiscreteObservationRange(0).hasSpecialMinStatus());
-        assert (!theTaskSpec.getDiscreteObservationRange(0).hasSpecialMaxStatus());
-        numStates = theTaskSpec.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(theTaskSpec);
+        assert (observationIndexer.isDense());
+        numStates = observationIndexer.size();
 
         assert (theTaskSpec.getNumDiscreteActionDims() == 1);
         assert (theTaskSpec.getNumContinuousActionDims() == 0);
@@ -84,8 +112,14 @@ public class SampleSarsaAgent implements AgentInterface {
 
         sarsa_gamma=theTaskSpec.getDiscountFactor();
 
-        valueFunction = new double[numActions][numStates];
+        closeValueFunction();
+        valueFunction = tableStorage.create(theTaskSpec, getClass().getName(), numActions, numStates);
 
+        if (checkpointer != null)
+            checkpointer.close();
+        checkpointer = new TableCheckpointer(valueFunction, getClass().getName());
+        steps = 0;
+        batch = new SarsaBatch(observationIndexer, batchLearner);
     }
 
     /**
@@ -95,7 +129,7 @@ public class SampleSarsaAgent implements AgentInterface {
      * @return
      */
     public Action agent_start(Observation observation) {
-        int newActionInt = egreedy(observation.getInt(0));
+        int newActionInt = egreedy(observationIndexer.index(observation));
 
         /**
          * Create a structure to hold 1 integer action
@@ -119,20 +153,22 @@ public class SampleSarsaAgent implements AgentInterface {
      * @return
      */
     public Action agent_step(double reward, Observation observation) {
-        int newStateInt = observation.getInt(0);
-        int lastStateInt = lastObservation.getInt(0);
+        int newStateInt = observationIndexer.index(observation);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
         int newActionInt = egreedy(newStateInt);
 
-        double Q_sa = valueFunction[lastActionInt][lastStateInt];
-        double Q_sprime_aprime = valueFunction[newActionInt][newStateInt];
+        double Q_sa = valueFunction.get(lastActionInt, lastStateInt);
+        double Q_sprime_aprime = valueFunction.get(newActionInt, newStateInt);
 
         double new_Q_sa = Q_sa + sarsa_stepsize * (reward + sarsa_gamma * Q_sprime_aprime - Q_sa);
         /*	Only update the value function if the policy is not frozen */
         if (!policyFrozen) {
-            valueFunction[lastActionInt][lastStateInt] = new_Q_sa;
+            checkpointer.beforeWrite(lastActionInt, lastStateInt);
+            valueFunction.set(lastActionInt, lastStateInt, new_Q_sa);
         }
+        countStep();
 
         /* Creating the action a different way to showcase variety */
         Action returnAction = new Action();
@@ -149,26 +185,53 @@ public class SampleSarsaAgent implements AgentInterface {
      * @param reward
      */
     public void agent_end(double reward) {
-        int lastStateInt = lastObservation.getInt(0);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
-        double Q_sa = valueFunction[lastActionInt][lastStateInt];
+        double Q_sa = valueFunction.get(lastActionInt, lastStateInt);
         double new_Q_sa = Q_sa + sarsa_stepsize * (reward - Q_sa);
 
         /*	Only update the value function if the policy is not frozen */
         if (!policyFrozen) {
-            valueFunction[lastActionInt][lastStateInt] = new_Q_sa;
+            checkpointer.beforeWrite(lastActionInt, lastStateInt);
+            valueFunction.set(lastActionInt, lastStateInt, new_Q_sa);
         }
+        countStep();
         lastObservation = null;
         lastAction = null;
     }
 
+    /**
+     * Choose the first action of every slot of a batch environment.
+     * @param observations
+     * @param actions
+     */
+    public void agent_start(int[] observations, int[] actions) {
+        batch.start(observations, actions);
+    }
+
+    /**
+     * The SARSA update for every slot of a batch environment, see SarsaBatch.
+     * @param rewards
+     * @param observations
+     * @param terminals
+     * @param actions
+     */
+    public void agent_step(double[] rewards, int[] observations, boolean[] terminals, int[] actions) {
+        batch.step(rewards, observations, terminals, actions);
+    }
+
     /**
      * Release memory that is no longer required/used.
      */
     public void agent_cleanup() {
+        if (checkpointer != null)
+            checkpointer.close();
+        checkpointer = null;
+        closeValueFunction();
         lastAction = null;
         lastObservation = null;
+        batch = null;
         valueFunction = null;
     }
 
@@ -209,6 +272,77 @@ public class SampleSarsaAgent implements AgentInterface {
             return "message understood, loading policy";
         }
 
+        /* 'set_table_storage heap|mapped FILE|quantized [HORIZON]'
+         * Where to keep the value function from the next agent_init, see QTableStorage.
+         */
+        if (message.startsWith("set_table_storage"))
+            return tableStorage.configure(message);
+        /* 'checkpoint_every N FILE'
+         * Write the value function to FILE every N steps (0 to stop) on a
+         * background thread, while learning continues.
+         */
+        if (message.startsWith("checkpoint_every")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "checkpoint_every needs an interval";
+            int interval;
+            try {
+                interval = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException ex) {
+                return "bad checkpoint interval: " + parts[1];
+            }
+            if (interval < 0)
+                return "checkpoint_every needs an interval of at least 0, not " + interval;
+            String file = parts.length > 2 ? parts[2] : checkpointFile;
+            if (interval > 0 && file == null)
+                return "checkpoint_every needs a file name";
+
+            checkpointInterval = interval;
+            checkpointFile = file;
+            incrementalCheckpoints = false;
+            return "message understood, checkpointing every " + checkpointInterval + " steps";
+        }
+        /* 'checkpoint_incremental N DIR [K]'
+         * Like checkpoint_every, but write only the blocks changed since the
+         * previous checkpoint into DIR, with a full base every K deltas.
+         */
+        if (message.startsWith("checkpoint_incremental")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 3)
+                return "checkpoint_incremental needs an interval and a directory";
+            int interval;
+            int compact = compactEvery;
+            try {
+                interval = Integer.parseInt(parts[1]);
+                if (parts.length > 3)
+                    compact = Integer.parseInt(parts[3]);
+            } catch (NumberFormatException ex) {
+                return "bad checkpoint_incremental number: " + ex.getMessage();
+            }
+            if (interval < 0 || compact < 1)
+                return "checkpoint_incremental needs an interval of at least 0 and a base every 1 or more deltas";
+
+            checkpointInterval = interval;
+            checkpointFile = parts[2];
+            compactEvery = compact;
+            incrementalCheckpoints = true;
+            return "message understood, incremental checkpoints every " + checkpointInterval +
+                " steps, base every " + compactEvery + " deltas";
+        }
+        if (message.startsWith("load_checkpoint")) {
+            String[] parts = message.split(" ");
+            loadCheckpoint(parts[1]);
+            return "message understood, loading checkpoint";
+        }
+        if (message.equals("checkpoint_stats")) {
+            if (checkpointer == null)
+                return "no checkpoints";
+            checkpointer.await();
+            return "written=" + checkpointer.written() + " skipped=" + checkpointer.skipped() +
+                " bases=" + checkpointer.bases() + " deltas=" + checkpointer.deltas() +
+                " bytes=" + checkpointer.bytesWritten() + " failed=" + checkpointer.failed();
+        }
+
         return "SampleSarsaAgent(Java) does not understand your message.";
 
     }
@@ -230,13 +364,27 @@ public class SampleSarsaAgent implements AgentInterface {
         }
 
         /*otherwise choose the greedy action*/
-        int maxIndex = 0;
-        for (int a = 1; a < numActions; a++) {
-            if (valueFunction[a][theState] > valueFunction[maxIndex][theState]) {
-                maxIndex = a;
-            }
+        return valueFunction.maxAction(theState);
+    }
+
+    /**
+     * Release the value function, writing it back if it is persistent.
+     */
+    private void closeValueFunction() {
+        if (checkpointer != null)
+            checkpointer.await();
+        QTableStorage.close(valueFunction);
+    }
+
+    /* Count a learning step and start a background checkpoint when one is due */
+    private void countStep() {
+        steps++;
+        if (checkpointInterval > 0 && steps % checkpointInterval == 0) {
+            if (incrementalCheckpoints)
+                checkpointer.checkpointIncremental(new File(checkpointFile), compactEvery);
+            else
+                checkpointer.checkpoint(new File(checkpointFile));
         }
-        return maxIndex;
     }
 
     /**
@@ -251,45 +399,46 @@ public class SampleSarsaAgent implements AgentInterface {
     }
 
     /**
-     * Dumps the value function to a file named theFileName.  Not fancy. Must be
-     * called after init but before cleanup.
+     * Writes the value function to a file named theFileName in the TableSnapshot
+     * format (header with dimensions, agent class and checksum, followed by the
+     * values).  Must be called after init but before cleanup.
      * @param theFileName
      */
     private void saveValueFunction(String theFileName) {
+        checkpointer.await();
         try {
-            DataOutputStream DO = new DataOutputStream(new FileOutputStream(new File(theFileName)));
-            for (int a = 0; a < numActions; a++) {
-                for (int s = 0; s < numStates; s++) {
-                    DO.writeDouble(valueFunction[a][s]);
-                }
-            }
-            DO.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem saving value function to file: " + theFileName + " :: " + ex);
+            TableSnapshot.write(new File(theFileName), getClass().getName(), valueFunction);
         } catch (IOException ex) {
-            System.err.println("Problem writing value function to file:: " + ex);
+            System.err.println("Problem writing value function to file: " + theFileName + " :: " + ex);
         }
-
     }
 
     /**
-     * Loads the value function from a file named theFileName.  Must be called after
-     * init but before cleanup.
+     * Loads the value function from a file named theFileName.  The file must
+     * have been written by saveValueFunction for a problem of the same size.
+     * Must be called after init but before cleanup.
      * @param theFileName
      */
     private void loadValueFunction(String theFileName) {
+        checkpointer.tableReplaced();
         try {
-            DataInputStream DI = new DataInputStream(new FileInputStream(new File(theFileName)));
-            for (int a = 0; a < numActions; a++) {
-                for (int s = 0; s < numStates; s++) {
-                    valueFunction[a][s] = DI.readDouble();
-                }
-            }
-            DI.close();
-        } catch (FileNotFoundException ex) {
-            System.err.println("Problem loading value function from file: " + theFileName + " :: " + ex);
+            TableSnapshot.read(new File(theFileName), getClass().getName(), valueFunction);
+        } catch (IOException ex) {
+            System.err.println("Problem reading value function from file: " + theFileName + " :: " + ex);
+        }
+    }
+
+    /**
+     * Restores the value function from a directory of incremental checkpoints
+     * (see TableCheckpointer).  Must be called after init but before cleanup.
+     * @param theDirName
+     */
+    private void loadCheckpoint(String theDirName) {
+        checkpointer.tableReplaced();
+        try {
+            TableCheckpointer.load(new File(theDirName), getClass().getName(), valueFunction);
         } catch (IOException ex) {
-            System.err.println("Problem reading value function from file:: " + ex);
+            System.err.println("Problem reading checkpoint from directory: " + theDirName + " :: " + ex);
         }
     }
 }
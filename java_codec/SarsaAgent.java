@@ -5,14 +5,34 @@ import org.rlcommunity.rlglue.codec.types.Observation;
 import org.rlcommunity.rlglue.codec.util.AgentLoader;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
 
-public class SarsaAgent implements AgentInterface {
+public class SarsaAgent implements AgentInterface, BatchAgentInterface {
 
     private Random randGenerator = new Random();
 
     private Action lastAction;
     private Observation lastObservation;
+    private ObservationIndexer observationIndexer;
+
+    // The slots of a batch environment, and the SARSA update they learn with
+    private SarsaBatch batch;
+    private final SarsaBatch.Learner batchLearner = new SarsaBatch.Learner() {
+        public int egreedy(int state) {
+            return SarsaAgent.this.egreedy(state);
+        }
+
+        public void update(int s, int a, double reward, int sPrime, int aPrime, boolean terminal) {
+            double Q_sa = valueFunction.get(a, s);
+            double target = reward;
+            if (!terminal)
+                target += gamma * valueFunction.get(aPrime, sPrime);
+            valueFunction.set(a, s, Q_sa + alpha * (target - Q_sa));
+        }
+    };
     
-    private double[][] valueFunction = null;
+    private QTable valueFunction = null;
+
+    // Where the value function lives, set with 'set_table_storage'
+    private QTableStorage tableStorage = new QTableStorage();
     
     private double alpha = 0.1;
     private double epsilon = 0.1;
@@ -31,16 +51,19 @@ public class SarsaAgent implements AgentInterface {
         assert (ts.getNumContinuousActionDims() == 0);
         assert (ts.getNumContinuousObsDims() == 0);
         
-        numStates = ts.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(ts);
+        numStates = observationIndexer.size();
         numActions = ts.getDiscreteActionRange(0).getMax() + 1;
 
         gamma = ts.getDiscountFactor();	
 
-        valueFunction = new double[numActions][numStates];
+        QTableStorage.close(valueFunction);
+        valueFunction = tableStorage.create(ts, getClass().getName(), numActions, numStates);
+        batch = new SarsaBatch(observationIndexer, batchLearner);
     }
     
     public Action agent_start(Observation observation) {
-        int newActionInt = egreedy(observation.getInt(0));
+        int newActionInt = egreedy(observationIndexer.index(observation));
 
         /**
          * Create a structure to hold 1 integer action
@@ -64,17 +87,17 @@ public class SarsaAgent implements AgentInterface {
      * @return
      */
     public Action agent_step(double reward, Observation observation) {
-        int newStateInt = observation.getInt(0);
-        int lastStateInt = lastObservation.getInt(0);
+        int newStateInt = observationIndexer.index(observation);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
         int newActionInt = egreedy(newStateInt);      
 
-        double Q_sa = valueFunction[lastActionInt][lastStateInt];
-        double Q_sprime_aprime = valueFunction[newActionInt][newStateInt];
+        double Q_sa = valueFunction.get(lastActionInt, lastStateInt);
+        double Q_sprime_aprime = valueFunction.get(newActionInt, newStateInt);
         double new_Q_sa = Q_sa + alpha * (reward + gamma * Q_sprime_aprime - Q_sa);
         
-        valueFunction[lastActionInt][lastStateInt] = new_Q_sa;
+        valueFunction.set(lastActionInt, lastStateInt, new_Q_sa);
         
         /* Creating the action a different way to showcase variety */
         Action returnAction = new Action();
@@ -91,29 +114,57 @@ public class SarsaAgent implements AgentInterface {
      * @param reward
      */
     public void agent_end(double reward) {
-        int lastStateInt = lastObservation.getInt(0);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
-        double Q_sa = valueFunction[lastActionInt][lastStateInt];
+        double Q_sa = valueFunction.get(lastActionInt, lastStateInt);
         double new_Q_sa = Q_sa + alpha * (reward - Q_sa);
 
-        valueFunction[lastActionInt][lastStateInt] = new_Q_sa;
+        valueFunction.set(lastActionInt, lastStateInt, new_Q_sa);
 
         lastObservation = null;
         lastAction = null;
     }
 
+    /**
+     * Choose the first action of every slot of a batch environment.
+     * @param observations
+     * @param actions
+     */
+    public void agent_start(int[] observations, int[] actions) {
+        batch.start(observations, actions);
+    }
+
+    /**
+     * The SARSA update for every slot of a batch environment, see SarsaBatch.
+     * @param rewards
+     * @param observations
+     * @param terminals
+     * @param actions
+     */
+    public void agent_step(double[] rewards, int[] observations, boolean[] terminals, int[] actions) {
+        batch.step(rewards, observations, terminals, actions);
+    }
+
     /**
      * Release memory that is no longer required/used.
      */
     public void agent_cleanup() {
+        QTableStorage.close(valueFunction);
         lastAction = null;
         lastObservation = null;
+        batch = null;
         valueFunction = null;
     }
 
     public String agent_message(String message) {
-        return "Agent does not handle any messages.";
+        /* 'set_table_storage heap|mapped FILE|quantized [HORIZON]'
+         * Where to keep the value function from the next agent_init, see QTableStorage.
+         */
+        if (message.startsWith("set_table_storage"))
+            return tableStorage.configure(message);
+
+        return "Agent does not handle this message.";
     }
 
     /**
@@ -134,15 +185,7 @@ public class SarsaAgent implements AgentInterface {
 
     /* Compute and return the best action for a given state */
     private int maxAction(int state) {	
-        int maxIndex = 0;
-
-        for (int a = 1; a < numActions; a++) {
-            if (valueFunction[a][state] > valueFunction[maxIndex][state]) {
-                maxIndex = a;
-            }
-        }
-
-        return maxIndex;
+        return valueFunction.maxAction(state);
     } 
 
     /**
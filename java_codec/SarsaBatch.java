@@ -0,0 +1,81 @@
+/**
+ * The batch loop of a tabular SARSA agent (see BatchAgentInterface): it
+ * remembers the last state and action of every slot, and leaves the choice
+ * of actions and the update of the value function to the agent's Learner.
+ *
+ * All next actions of a batch are chosen first, from the value function as
+ * it was before the batch, then the updates are applied slot by slot. A slot
+ * whose episode ended is updated towards its last reward, as in agent_end,
+ * and goes on from the first observation of its next episode.
+ */
+public class SarsaBatch {
+
+    /* The parts of a SARSA agent the batch loop needs */
+    public interface Learner {
+
+        /* Choose an action in a state */
+        int egreedy(int state);
+
+        /* Learn from one transition; nextState and nextAction are not used
+         * when the transition ends an episode
+         */
+        void update(int state, int action, double reward, int nextState, int nextAction, boolean terminal);
+    }
+
+    private final ObservationIndexer observationIndexer;
+    private final Learner learner;
+
+    // Last state and action of each slot
+    private int[] states;
+    private int[] actions;
+
+    // Indexed observations of the current step
+    private int[] nextStates;
+
+    public SarsaBatch(ObservationIndexer observationIndexer, Learner learner) {
+        this.observationIndexer = observationIndexer;
+        this.learner = learner;
+    }
+
+    /**
+     * Choose the first action of every slot.
+     * @param observations
+     * @param actions
+     */
+    public void start(int[] observations, int[] actions) {
+        if (states == null || states.length != observations.length) {
+            states = new int[observations.length];
+            this.actions = new int[observations.length];
+            nextStates = new int[observations.length];
+        }
+
+        for (int i = 0; i < observations.length; i++) {
+            states[i] = observationIndexer.index(observations[i]);
+            this.actions[i] = learner.egreedy(states[i]);
+            actions[i] = this.actions[i];
+        }
+    }
+
+    /**
+     * Learn from the transitions of every slot and choose the next actions.
+     * @param rewards
+     * @param observations
+     * @param terminals
+     * @param actions
+     */
+    public void step(double[] rewards, int[] observations, boolean[] terminals, int[] actions) {
+        int n = states.length;
+
+        for (int i = 0; i < n; i++) {
+            nextStates[i] = observationIndexer.index(observations[i]);
+            actions[i] = learner.egreedy(nextStates[i]);
+        }
+
+        for (int i = 0; i < n; i++) {
+            learner.update(states[i], this.actions[i], rewards[i], nextStates[i], actions[i], terminals[i]);
+
+            states[i] = nextStates[i];
+            this.actions[i] = actions[i];
+        }
+    }
+}
@@ -1,13 +1,11 @@
+import java.util.Arrays;
 import java.util.Random;
-import java.util.Map;
-import java.util.HashMap;
 import org.rlcommunity.rlglue.codec.AgentInterface;
 import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
 import org.rlcommunity.rlglue.codec.types.Action;
 import org.rlcommunity.rlglue.codec.types.Observation;
 import org.rlcommunity.rlglue.codec.util.AgentLoader;
 import org.rlcommunity.rlglue.codec.taskspec.TaskSpec;
-import org.rlcommunity.rlglue.codec.taskspec.ranges.IntRange;
 
 public class SarsaHistoryAgent implements AgentInterface {
 
@@ -15,19 +13,36 @@ public class SarsaHistoryAgent implements AgentInterface {
 
     private Random rand = new Random();
 
-    // Current and next state of agent
+    // Current and next state of agent, and their rows in Q
     private State state, nextState;
+    private int stateRow, nextStateRow;
     
+    // The last action taken and its index
     private Action lastAction;
+    private int lastActionIndex;
     
-    private int discreteActionDims;
-    private IntRange[] discreteActionRanges;
+    private ActionCodec actionCodec;
     private int numActions;
-   
-    private int[] indexSteps;
 
-    // State-Action value function implemented as a map
-    private Map<State, double[]> Q;    
+    // Encoding of observations, used to build exact history keys
+    private ObservationIndexer observationIndexer;
+    private long numObservations;
+
+    // True if every history up to State.maxLength fits into a long key.
+    // Otherwise histories are keyed by their 64-bit hash.
+    private boolean exactKeys;
+
+    // State-Action value function: one row of numActions values per history key
+    private LongRowTable Q;
+
+    // With hash keys, the history stored in each row of Q, and the number of
+    // rows taken over by a different history with the same hash
+    private State[] rowStates;
+    private long collisions;
+
+    // Maximum number of rows in Q (0 for no limit) and how to make room when it is full
+    private int qCapacity = 0;
+    private LongRowTable.EvictionPolicy evictionPolicy = LongRowTable.EvictionPolicy.LRU;
     
     // Algoritm parameters
     private double alpha = 0.1;
@@ -46,134 +61,192 @@ public class SarsaHistoryAgent implements AgentInterface {
         
         gamma = ts.getDiscountFactor();	
 
-        // Get the ranges of all integers of a completely discrete action
-        discreteActionDims = ts.getNumDiscreteActionDims();
-        discreteActionRanges = new IntRange[discreteActionDims];
-        indexSteps = new int[discreteActionDims];
+        // Index all actions of a completely discrete action space
+        actionCodec = new ActionCodec(ts);
+        numActions = actionCodec.numActions();
         
-        numActions = 1;
-        for (int i = 0; i < discreteActionDims; i++) {
-            discreteActionRanges[i] = ts.getDiscreteActionRange(i);
-            numActions *= discreteActionRanges[i].getRangeSize();
-        }
+        initObservationEncoding(ts);
 
-        indexSteps[0] = 1;
-        for (int i = 1; i < discreteActionDims; i++)
-            indexSteps[i] = discreteActionRanges[i].getRangeSize() * indexSteps[i - 1];
-        
         // Initialize the state-action value function Q
-        Q = new HashMap<State, double[]>();
-
-        // Test of the actionIndex and indexAction functions
-        for (int i = 0; i < numActions; i++)
-            if (actionIndex(indexAction(i)) != i)
-                System.out.printf("Test failed!\n");
+        if (qCapacity > 0)
+            Q = new LongRowTable(numActions, defaultValue, qCapacity, evictionPolicy);
+        else
+            Q = new LongRowTable(numActions, defaultValue);
+        rowStates = exactKeys ? null : new State[16];
+        collisions = 0;
      }
     
     public Action agent_start(Observation observation) {
         // Add the given observation if it does not already exists in the map
         state = new State(observation.duplicate());
-
-        if (!Q.containsKey(state))	   
-            Q.put(state, defaultValues());	
+        Q.pin(-1);
+        stateRow = row(state);
 
         // Select the greedy action corresponding to the first state
-        Action action = greedyAction(state);
-
-        // Save the last action
-        lastAction = action.duplicate();
+        lastActionIndex = greedyAction(stateRow);
+        lastAction = actionCodec.action(lastActionIndex);
         
-        return action;
+        return lastAction;
     }
   
     public Action agent_step(double reward, Observation observation) {
         //nextState = new State(observation.duplicate());
         nextState = state.next(lastAction, observation.duplicate());
 
-        // Add the next state if it does not already exists in the map
-        if (!Q.containsKey(nextState))	   
-            Q.put(nextState, defaultValues());	   
+        // Find the row of the next state, adding it if it does not already exist.
+        // The row of the current state is pinned so that it cannot be evicted.
+        Q.pin(stateRow);
+        nextStateRow = row(nextState);
         
         // Select greedy action for the next state
-        Action action = greedyAction(nextState);
+        int actionIndex = greedyAction(nextStateRow);
 
         // SARSA learning
-        double[] Q_s = Q.get(state);
-        double Q_sa = Q_s[actionIndex(lastAction)];
-        double Q_sprime_aprime = Q.get(nextState)[actionIndex(action)];
-        Q_s[actionIndex(lastAction)] = Q_sa + alpha * (reward + gamma * Q_sprime_aprime - Q_sa);
+        double[] values = Q.values();
+        int sa = Q.offset(stateRow) + lastActionIndex;
+        double Q_sa = values[sa];
+        double Q_sprime_aprime = values[Q.offset(nextStateRow) + actionIndex];
+        values[sa] = Q_sa + alpha * (reward + gamma * Q_sprime_aprime - Q_sa);
+        Q.visit(stateRow);
 
         // Make a transition to the next state and save the action taken
         state = nextState;
-        lastAction = action.duplicate();
+        stateRow = nextStateRow;
+        lastActionIndex = actionIndex;
+        lastAction = actionCodec.action(actionIndex);
 
-        return action;
+        return lastAction;
     }
    
     public void agent_end(double reward) {
         // SARSA learning (last step of episode)
-        double[] Q_s = Q.get(state);
-        double Q_sa = Q_s[actionIndex(lastAction)];
-        Q_s[actionIndex(lastAction)] = Q_sa + alpha * (reward - Q_sa);
+        double[] values = Q.values();
+        int sa = Q.offset(stateRow) + lastActionIndex;
+        double Q_sa = values[sa];
+        values[sa] = Q_sa + alpha * (reward - Q_sa);
+        Q.visit(stateRow);
     }
    
     public void agent_cleanup() {      
     }
 
     public String agent_message(String message) {
-        return "Agent does not handle any messages.";
+        /* 'set_q_capacity N [lru|lfu|visits]'
+         * Bound Q to N rows (0 for no bound), evicting rows with the given policy.
+         * Takes effect at the next agent_init.
+         */
+        if (message.startsWith("set_q_capacity")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "set_q_capacity needs a number of rows";
+
+            int capacity;
+            try {
+                capacity = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException ex) {
+                return "bad Q capacity: " + parts[1];
+            }
+            LongRowTable.EvictionPolicy policy = evictionPolicy;
+            if (parts.length > 2) {
+                try {
+                    policy = LongRowTable.EvictionPolicy.valueOf(parts[2].toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    return "unknown eviction policy: " + parts[2] + ", use lru, lfu or visits";
+                }
+            }
+            if (capacity < 0)
+                return "set_q_capacity needs a number of rows of at least 0, not " + capacity;
+
+            qCapacity = capacity;
+            evictionPolicy = policy;
+            return "message understood, Q capacity " + qCapacity + " (" + evictionPolicy + ") from next init";
+        }
+
+        /* 'q_stats'
+         * Report the lookup and eviction counters of Q.
+         */
+        if (message.equals("q_stats")) {
+            if (Q == null)
+                return "Q is not initialized";
+            return "rows=" + Q.size() + " capacity=" + Q.maxRows() + " policy=" + Q.policy() +
+                " hits=" + Q.hits() + " misses=" + Q.misses() + " evictions=" + Q.evictions() +
+                " collisions=" + collisions;
+        }
+
+        return "Agent does not handle this message.";
     }
 
     /* Selects a random action with probability 1 - epsilon,
      * and the action with the highest value otherwise. 
      */
-    private Action greedyAction(State state) {
+    private int greedyAction(int row) {
         if (rand.nextDouble() <= epsilon)
-            return indexAction(rand.nextInt(numActions));
+            return rand.nextInt(numActions);
         else
-            return indexAction(maxAction(state));        
+            return maxAction(row);        
     }
 
-    // Compute and return the best action index for a given state
-    private int maxAction(State state) {	
-        double[] Q_s = Q.get(state);
+    // Compute and return the best action index for the state in a given row of Q
+    private int maxAction(int row) {	
+        double[] values = Q.values();
+        int offset = Q.offset(row);
         
         int maxIndex = 0;
         for (int i = 1; i < numActions; i++)
-            if (Q_s[i] > Q_s[maxIndex])
+            if (values[offset + i] > values[offset + maxIndex])
                 maxIndex = i;
      
         return maxIndex;
     }
 
-    // Compute the action index that may be used in a 1-dim array of action values
-    private int actionIndex(Action a) {
-        int index = 0;
-        for (int i = 0; i < discreteActionDims; i++)
-            index += (a.getInt(i) - discreteActionRanges[i].getMin()) * indexSteps[i];
-
-        return index;
+    /* Set up the encoding of observations and decide whether the longest
+     * history can be encoded exactly in a long.
+     */
+    private void initObservationEncoding(TaskSpec ts) {
+        observationIndexer = new ObservationIndexer(ts);
+        numObservations = observationIndexer.count();
+
+        // The oldest observation is stored with an offset of one, so that
+        // histories of different lengths can never share a key
+        exactKeys = observationIndexer.hasExactKeys() &&
+            (numObservations + 1) * Math.pow((double)numActions * numObservations, State.maxLength) < Long.MAX_VALUE;
     }
 
-    // Construct an action corresponding to a specific index
-    private Action indexAction(int index) {
-        Action a = new Action(discreteActionDims, 0, 0);
-
-        for (int i = discreteActionDims - 1; i >= 0; i--) {
-            int x = index / indexSteps[i];
-            index -= x * indexSteps[i];
-            a.setInt(i, x + discreteActionRanges[i].getMin());
+    /* Find the row of a state in Q, adding it if it does not already exist.
+     * With hash keys the history stored with the row is compared as well, and
+     * if it differs the row is reset and handed to the new history.
+     */
+    private int row(State s) {
+        int row = Q.getOrInsert(stateKey(s));
+        if (exactKeys)
+            return row;
+
+        if (row >= rowStates.length)
+            rowStates = Arrays.copyOf(rowStates, Math.max(2 * rowStates.length, row + 1));
+        if (!Q.inserted() && !s.equals(rowStates[row])) {
+            collisions++;
+            Q.reset(row);
         }
+        rowStates[row] = s;
 
-        return a;
+        return row;
     }
 
-    private double[] defaultValues() {
-        double[] values = new double[numActions];
-        for (int i = 0; i < numActions; i++)
-            values[i] = defaultValue;
+    /* Compute the key of a state in Q. If the problem is small enough this is
+     * an exact mixed-radix encoding of the whole history, otherwise it is the
+     * 64-bit hash of the history.
+     */
+    private long stateKey(State s) {
+        if (!exactKeys)
+            return s.longHash();
+
+        long key = observationIndexer.key(s.observations[0]) + 1;
+        for (int i = 0; i < s.length; i++) {
+            key = key * numActions + actionCodec.index(s.actions[i]);
+            key = key * numObservations + observationIndexer.key(s.observations[i + 1]);
+        }
 
-        return values;
+        return key;
     }
 
     public static void main(String[] args) {
@@ -182,8 +255,15 @@ public class SarsaHistoryAgent implements AgentInterface {
     }
 
     // A state consists of a finite history of observations and actions
-    private class State {
+    static class State {
         private static final int maxLength = 0;
+
+        // Multiplicative constants of xxHash64
+        private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long PRIME_3 = 0x165667B19E3779F9L;
+        private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+        private static final long PRIME_5 = 0x27D4EB2F165667C5L;
         
         public int length;
         public Observation[] observations;
@@ -241,7 +321,7 @@ public class SarsaHistoryAgent implements AgentInterface {
             return nextState;
             } 
 
-        /* Equality comparison, required for using State objects as keys in maps.
+        /* Equality comparison, used to tell histories with the same hash apart.
          * Two states are considered equal if and only if they are of the same length 
          * and all their observations and actions are equal.
          */
@@ -272,27 +352,44 @@ public class SarsaHistoryAgent implements AgentInterface {
             return true;
         }
 
+        /* Consistent with equals, from the 64-bit hash of the history */
         @Override
         public int hashCode() {
-            int hash = 0;
+            long h = longHash();
+            return (int)(h ^ (h >>> 32));
+        }
+
+        /* Hash over the full encoded history. Every int of every observation
+         * and action is fed through an xxHash64-style round, so the position of
+         * a value matters and permuted or shifted histories get different keys.
+         */
+        public long longHash() {
+            long h = PRIME_5 + length;
 
-            hash += intSum(this.observations[0]);
+            h = combine(h, this.observations[0]);
 
             for (int i = 0; i < length; i++) {
-                hash += intSum(this.actions[i]);
-                hash += intSum(this.observations[i + 1]);
+                h = combine(h, this.actions[i]);
+                h = combine(h, this.observations[i + 1]);
             }
 
-            return hash;
+            // Final avalanche so that all input bits affect the low bits
+            h ^= h >>> 33;
+            h *= PRIME_2;
+            h ^= h >>> 29;
+            h *= PRIME_3;
+            h ^= h >>> 32;
+
+            return h;
         }
         
-        private int intSum(RL_abstract_type x) {
-            int sum = 0;
-            
-            for (int i = 0; i < x.getNumInts(); i++)
-                sum += x.getInt(i);
+        private long combine(long h, RL_abstract_type x) {
+            for (int i = 0; i < x.getNumInts(); i++) {
+                h ^= Long.rotateLeft(x.getInt(i) * PRIME_2, 31) * PRIME_1;
+                h = Long.rotateLeft(h, 27) * PRIME_1 + PRIME_4;
+            }
             
-            return sum;
-        }   
+            return h;
+        }
     }
 }
@@ -11,6 +11,7 @@ public class SarsaLambdaAgent implements AgentInterface {
 
     private Action lastAction;
     private Observation lastObservation;
+    private ObservationIndexer observationIndexer;
     
     private double[][] valueFunction = null;
     private double[][] trace = null;
@@ -33,7 +34,8 @@ public class SarsaLambdaAgent implements AgentInterface {
         assert (ts.getNumContinuousActionDims() == 0);
         assert (ts.getNumContinuousObsDims() == 0);
         
-        numStates  = ts.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(ts);
+        numStates  = observationIndexer.size();
         numActions = ts.getDiscreteActionRange     (0).getMax() + 1;
 
         gamma = ts.getDiscountFactor();	
@@ -45,7 +47,7 @@ public class SarsaLambdaAgent implements AgentInterface {
     }
     
     public Action agent_start(Observation observation) {
-        int newActionInt = egreedy(observation.getInt(0));
+        int newActionInt = egreedy(observationIndexer.index(observation));
 
         /**
          * Create a structure to hold 1 integer action
@@ -72,8 +74,8 @@ public class SarsaLambdaAgent implements AgentInterface {
      * @return
      */
     public Action agent_step(double reward, Observation observation) {
-        int newStateInt   = observation.getInt(0);
-        int lastStateInt  = lastObservation.getInt(0);
+        int newStateInt   = observationIndexer.index(observation);
+        int lastStateInt  = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
         int newActionInt  = egreedy(newStateInt);      
 
@@ -105,7 +107,7 @@ public class SarsaLambdaAgent implements AgentInterface {
      * @param reward
      */
     public void agent_end(double reward) {
-        int lastStateInt = lastObservation.getInt(0);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
         double Q_sa = valueFunction[lastActionInt][lastStateInt];
@@ -11,6 +11,7 @@ public class SarsaSoftmaxAgent implements AgentInterface {
 
     private Action lastAction;
     private Observation lastObservation;
+    private ObservationIndexer observationIndexer;
     
     private double[][] valueFunction = null;
     
@@ -34,7 +35,8 @@ public class SarsaSoftmaxAgent implements AgentInterface {
         assert (ts.getNumContinuousObsDims() == 0);
         assert (ts.getDiscreteActionRange(0).getMin() == 0);
         
-        numStates = ts.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(ts);
+        numStates = observationIndexer.size();
         numActions = ts.getDiscreteActionRange(0).getMax() + 1;
         
         gamma = ts.getDiscountFactor();	
@@ -43,7 +45,7 @@ public class SarsaSoftmaxAgent implements AgentInterface {
     }
     
     public Action agent_start(Observation observation) {
-        int newActionInt = softmaxAction(observation.getInt(0));
+        int newActionInt = softmaxAction(observationIndexer.index(observation));
 
         /**
          * Create a structure to hold 1 integer action
@@ -67,8 +69,8 @@ public class SarsaSoftmaxAgent implements AgentInterface {
      * @return
      */
     public Action agent_step(double reward, Observation observation) {
-        int newStateInt = observation.getInt(0);
-        int lastStateInt = lastObservation.getInt(0);
+        int newStateInt = observationIndexer.index(observation);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
         int newActionInt = softmaxAction(newStateInt);      
@@ -94,7 +96,7 @@ public class SarsaSoftmaxAgent implements AgentInterface {
      * @param reward
      */
     public void agent_end(double reward) {
-        int lastStateInt = lastObservation.getInt(0);
+        int lastStateInt = observationIndexer.index(lastObservation);
         int lastActionInt = lastAction.getInt(0);
 
         double Q_sa = valueFunction[lastActionInt][lastStateInt];
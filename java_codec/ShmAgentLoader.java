@@ -0,0 +1,79 @@
+import java.io.IOException;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+
+/**
+ * Runs an agent for an experiment in another process that reaches it through
+ * a ShmAgentProxy, the shared memory counterpart of AgentLoader. It waits
+ * until the proxy has created the channel file, serves the agent calls, and
+ * returns when the proxy is closed.
+ *
+ * Usage: java ShmAgentLoader [AgentClass] [file]
+ * with defaults MixedModelAgent and DEFAULT_FILE.
+ */
+public class ShmAgentLoader implements Runnable {
+
+    public static final String DEFAULT_FILE = "/dev/shm/rlglue-agent";
+
+    private final AgentInterface agent;
+    private final String file;
+
+    public ShmAgentLoader(AgentInterface agent) {
+        this(agent, DEFAULT_FILE);
+    }
+
+    public ShmAgentLoader(AgentInterface agent, String file) {
+        this.agent = agent;
+        this.file = file;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String agentClass = args.length > 0 ? args[0] : "MixedModelAgent";
+        String file = args.length > 1 ? args[1] : DEFAULT_FILE;
+        new ShmAgentLoader((AgentInterface)Class.forName(agentClass).getDeclaredConstructor().newInstance(), file).run();
+    }
+
+    public void run() {
+        ShmChannel channel;
+        try {
+            channel = ShmChannel.attach(file);
+        } catch (IOException ex) {
+            System.err.println("Could not attach to " + file + " :: " + ex);
+            return;
+        }
+
+        try {
+            while (true) {
+                int state = channel.receive();
+                channel.begin(state);
+                switch (state) {
+                case GlueProtocol.kAgentInit:
+                    agent.agent_init(channel.getString());
+                    break;
+                case GlueProtocol.kAgentStart:
+                    channel.putAbstractType(agent.agent_start(channel.getObservation()));
+                    break;
+                case GlueProtocol.kAgentStep:
+                    double reward = channel.getDouble();
+                    channel.putAbstractType(agent.agent_step(reward, channel.getObservation()));
+                    break;
+                case GlueProtocol.kAgentEnd:
+                    agent.agent_end(channel.getDouble());
+                    break;
+                case GlueProtocol.kAgentCleanup:
+                    agent.agent_cleanup();
+                    break;
+                case GlueProtocol.kAgentMessage:
+                    channel.putString(agent.agent_message(channel.getString()));
+                    break;
+                case GlueProtocol.kRLTerm:
+                    return;
+                default:
+                    throw new IllegalStateException("Unknown message: " + state);
+                }
+                channel.send();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
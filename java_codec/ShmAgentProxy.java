@@ -0,0 +1,68 @@
+import java.io.IOException;
+import org.rlcommunity.rlglue.codec.AgentInterface;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+
+/**
+ * An agent in another process, run by a ShmAgentLoader and reached through
+ * a shared memory channel. Give it to LocalGlue in place of the agent to
+ * use the shared memory transport instead of sockets.
+ */
+public class ShmAgentProxy implements AgentInterface {
+
+    private final ShmChannel channel;
+
+    public ShmAgentProxy() throws IOException {
+        this(ShmAgentLoader.DEFAULT_FILE);
+    }
+
+    public ShmAgentProxy(String file) throws IOException {
+        channel = ShmChannel.create(file, ShmChannel.DEFAULT_CAPACITY);
+    }
+
+    public void agent_init(String taskSpec) {
+        channel.begin(GlueProtocol.kAgentInit);
+        channel.putString(taskSpec);
+        channel.call(GlueProtocol.kAgentInit);
+    }
+
+    public Action agent_start(Observation observation) {
+        channel.begin(GlueProtocol.kAgentStart);
+        channel.putAbstractType(observation);
+        channel.call(GlueProtocol.kAgentStart);
+        return channel.getAction();
+    }
+
+    public Action agent_step(double reward, Observation observation) {
+        channel.begin(GlueProtocol.kAgentStep);
+        channel.putDouble(reward);
+        channel.putAbstractType(observation);
+        channel.call(GlueProtocol.kAgentStep);
+        return channel.getAction();
+    }
+
+    public void agent_end(double reward) {
+        channel.begin(GlueProtocol.kAgentEnd);
+        channel.putDouble(reward);
+        channel.call(GlueProtocol.kAgentEnd);
+    }
+
+    public void agent_cleanup() {
+        channel.begin(GlueProtocol.kAgentCleanup);
+        channel.call(GlueProtocol.kAgentCleanup);
+    }
+
+    public String agent_message(String message) {
+        channel.begin(GlueProtocol.kAgentMessage);
+        channel.putString(message);
+        channel.call(GlueProtocol.kAgentMessage);
+        return channel.getString();
+    }
+
+    /* Stop the loader and remove the channel file */
+    public void close() {
+        channel.begin(GlueProtocol.kRLTerm);
+        channel.send();
+        channel.close();
+    }
+}
@@ -0,0 +1,358 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.RL_abstract_type;
+
+/**
+ * A two-way message channel between two processes on one host through a
+ * memory-mapped file, normally in /dev/shm. It carries the messages of the
+ * RL-Glue protocol (see GlueProtocol) between ShmAgentProxy and
+ * ShmAgentLoader, and between ShmEnvironmentProxy and ShmEnvironmentLoader.
+ *
+ * The file holds a small header and two single-producer single-consumer
+ * byte rings, one per direction. A ring has the total bytes written (head)
+ * and read (tail) on cache lines of their own, followed by the data; they
+ * are published with release stores and read with acquire loads, so the
+ * data copied before a store is visible after the load. Messages longer than
+ * a ring go through in pieces.
+ *
+ * A side waiting for the other spins for a while, then yields, then parks
+ * for growing periods of up to MAX_PARK_NANOS, checking whether the other
+ * side has closed the channel. Another process cannot be unparked, so a
+ * parked side polls; the spinning and yielding keep the latency at a few
+ * microseconds as long as the other side answers quickly. On a single CPU
+ * the spinning is skipped, as it would only delay the other process.
+ *
+ * create() makes a new file, replacing any old one, and attach() waits until
+ * a file made by create() exists and claims it. A file can be attached once.
+ *
+ * This needs Java 9 or later, for the VarHandle accesses.
+ */
+public class ShmChannel {
+
+    public static final int MAGIC = 0x524C534D; // "RLSM"
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 20000 : 0;
+    private static final int YIELDS = 200;
+    private static final long MIN_PARK_NANOS = 10000;
+    private static final long MAX_PARK_NANOS = 1000000;
+
+    // The states of the file
+    private static final int CREATED = 1;
+    private static final int ATTACHED = 2;
+    private static final int CLOSED = 3;
+
+    // The layout of the file
+    private static final int MAGIC_AT = 0;
+    private static final int CAPACITY_AT = 4;
+    private static final int STATE_AT = 8;
+    private static final int RINGS_AT = 64;
+    private static final int HEAD_AT = 0;
+    private static final int TAIL_AT = 64;
+    private static final int DATA_AT = 128;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final File file;
+    private final MappedByteBuffer shared;
+    private final boolean owner;
+    private final Ring out;
+    private final Ring in;
+
+    // The message being built, and the one received, with their headers
+    private ByteBuffer message = ByteBuffer.allocateDirect(1 << 12);
+    private ByteBuffer received = ByteBuffer.allocateDirect(1 << 12);
+
+    private ShmChannel(File file, MappedByteBuffer shared, int capacity, boolean owner) {
+        this.file = file;
+        this.shared = shared;
+        this.owner = owner;
+
+        Ring first = new Ring(RINGS_AT, capacity);
+        Ring second = new Ring(RINGS_AT + DATA_AT + capacity, capacity);
+        out = owner ? first : second;
+        in = owner ? second : first;
+    }
+
+    /**
+     * Create a new channel file, replacing any old one.
+     * @param path
+     * @param capacity bytes per direction, a power of two
+     * @return
+     * @throws IOException
+     */
+    public static ShmChannel create(String path, int capacity) throws IOException {
+        if (capacity < 64 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("The capacity must be a power of two of at least 64, not " + capacity);
+
+        File file = new File(path);
+        file.delete();
+        MappedByteBuffer shared = map(file, RINGS_AT + 2 * (DATA_AT + capacity));
+        shared.putInt(CAPACITY_AT, capacity);
+        INT.setRelease(shared, STATE_AT, CREATED);
+        // The magic goes last, so a file with it is complete
+        INT.setRelease(shared, MAGIC_AT, MAGIC);
+        return new ShmChannel(file, shared, capacity, true);
+    }
+
+    /**
+     * Wait until a file made by create() exists, and claim it.
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static ShmChannel attach(String path) throws IOException {
+        File file = new File(path);
+        while (true) {
+            if (file.length() >= RINGS_AT) {
+                MappedByteBuffer shared = map(file, file.length());
+                if ((int)INT.getAcquire(shared, MAGIC_AT) == MAGIC &&
+                    INT.compareAndSet(shared, STATE_AT, CREATED, ATTACHED))
+                    return new ShmChannel(file, shared, shared.getInt(CAPACITY_AT), false);
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                throw new IOException("Interrupted while waiting for " + path);
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size)
+                raf.setLength(size);
+            MappedByteBuffer shared = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            shared.order(ByteOrder.nativeOrder());
+            return shared;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /* Start a message */
+    public void begin(int state) {
+        message.clear();
+        message.putInt(state).putInt(0);
+    }
+
+    public void putInt(int value) {
+        reserve(4);
+        message.putInt(value);
+    }
+
+    public void putDouble(double value) {
+        reserve(8);
+        message.putDouble(value);
+    }
+
+    public void putString(String value) {
+        if (value == null)
+            value = "";
+        byte[] bytes = value.getBytes();
+        reserve(4 + bytes.length);
+        message.putInt(bytes.length).put(bytes);
+    }
+
+    /* The number of ints, doubles and chars, then the values, a byte per char */
+    public void putAbstractType(RL_abstract_type value) {
+        int[] ints = value.intArray;
+        double[] doubles = value.doubleArray;
+        char[] chars = value.charArray;
+        reserve(12 + 4 * ints.length + 8 * doubles.length + chars.length);
+
+        message.putInt(ints.length).putInt(doubles.length).putInt(chars.length);
+        for (int i = 0; i < ints.length; i++)
+            message.putInt(ints[i]);
+        for (int i = 0; i < doubles.length; i++)
+            message.putDouble(doubles[i]);
+        for (int i = 0; i < chars.length; i++)
+            message.put((byte)chars[i]);
+    }
+
+    /* Send the message built since begin() */
+    public void send() {
+        message.putInt(4, message.position() - GlueProtocol.HEADER_SIZE);
+        message.flip();
+        out.write(message);
+    }
+
+    /**
+     * Wait for the next message.
+     * @return its code
+     */
+    public int receive() {
+        received.clear();
+        in.read(received, GlueProtocol.HEADER_SIZE);
+        int size = received.getInt(4);
+        if (GlueProtocol.HEADER_SIZE + size > received.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(GlueProtocol.HEADER_SIZE + size);
+            received.flip();
+            bigger.put(received);
+            received = bigger;
+        }
+        in.read(received, size);
+        received.flip();
+        received.position(GlueProtocol.HEADER_SIZE);
+        return received.getInt(0);
+    }
+
+    /* Send the message and wait for the answer, which must have the given code */
+    public void call(int state) {
+        send();
+        int answer = receive();
+        if (answer != state)
+            throw new IllegalStateException("Expected message " + state + " on " + file + ", got " + answer);
+    }
+
+    public int getInt() {
+        return received.getInt();
+    }
+
+    public double getDouble() {
+        return received.getDouble();
+    }
+
+    public String getString() {
+        byte[] bytes = new byte[received.getInt()];
+        received.get(bytes);
+        return new String(bytes);
+    }
+
+    public Observation getObservation() {
+        Observation observation = new Observation();
+        getAbstractType(observation);
+        return observation;
+    }
+
+    public Action getAction() {
+        Action action = new Action();
+        getAbstractType(action);
+        return action;
+    }
+
+    private void getAbstractType(RL_abstract_type value) {
+        value.intArray = new int[received.getInt()];
+        value.doubleArray = new double[received.getInt()];
+        value.charArray = new char[received.getInt()];
+        for (int i = 0; i < value.intArray.length; i++)
+            value.intArray[i] = received.getInt();
+        for (int i = 0; i < value.doubleArray.length; i++)
+            value.doubleArray[i] = received.getDouble();
+        for (int i = 0; i < value.charArray.length; i++)
+            value.charArray[i] = (char)(received.get() & 0xff);
+    }
+
+    /* Mark the channel closed for the other side; the creator removes the file */
+    public void close() {
+        INT.setRelease(shared, STATE_AT, CLOSED);
+        if (owner)
+            file.delete();
+    }
+
+    private void reserve(int bytes) {
+        if (message.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(2 * message.capacity(), message.position() + bytes));
+            message.flip();
+            bigger.put(message);
+            message = bigger;
+        }
+    }
+
+    /* Wait a little longer for the other side, the more rounds it has taken */
+    private void pause(int round) {
+        if (round < SPINS) {
+            Thread.onSpinWait();
+        } else if (round < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            if ((int)INT.getAcquire(shared, STATE_AT) == CLOSED)
+                throw new IllegalStateException("The other side closed " + file);
+            int parks = Math.min(round - SPINS - YIELDS, 30);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << parks, MAX_PARK_NANOS));
+        }
+    }
+
+    /* One direction of the channel; each process uses it as writer or as reader */
+    private final class Ring {
+
+        private final int base;
+        private final int capacity;
+        private final ByteBuffer data;
+
+        // The writer's head, or the reader's tail, and the last value seen of the other
+        private long head;
+        private long tail;
+
+        Ring(int base, int capacity) {
+            this.base = base;
+            this.capacity = capacity;
+            ByteBuffer view = shared.duplicate();
+            view.position(base + DATA_AT).limit(base + DATA_AT + capacity);
+            data = view.slice();
+        }
+
+        void write(ByteBuffer src) {
+            int round = 0;
+            while (src.hasRemaining()) {
+                if (head - tail == capacity) {
+                    tail = (long)LONG.getAcquire(shared, base + TAIL_AT);
+                    if (head - tail == capacity) {
+                        pause(round++);
+                        continue;
+                    }
+                }
+                round = 0;
+
+                int offset = (int)(head & (capacity - 1));
+                int n = (int)Math.min(Math.min(capacity - (head - tail), src.remaining()), capacity - offset);
+                int limit = src.limit();
+                src.limit(src.position() + n);
+                data.clear();
+                data.position(offset);
+                data.put(src);
+                src.limit(limit);
+
+                head += n;
+                LONG.setRelease(shared, base + HEAD_AT, head);
+            }
+        }
+
+        /* Read exactly n bytes into dst */
+        void read(ByteBuffer dst, int n) {
+            int round = 0;
+            while (n > 0) {
+                if (head == tail) {
+                    head = (long)LONG.getAcquire(shared, base + HEAD_AT);
+                    if (head == tail) {
+                        pause(round++);
+                        continue;
+                    }
+                }
+                round = 0;
+
+                int offset = (int)(tail & (capacity - 1));
+                int k = (int)Math.min(Math.min(head - tail, n), capacity - offset);
+                data.clear();
+                data.position(offset).limit(offset + k);
+                dst.put(data);
+
+                tail += k;
+                n -= k;
+                LONG.setRelease(shared, base + TAIL_AT, tail);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * Runs an environment for an experiment in another process that reaches it
+ * through a ShmEnvironmentProxy, the shared memory counterpart of
+ * EnvironmentLoader. It waits until the proxy has created the channel file,
+ * serves the environment calls, and returns when the proxy is closed.
+ *
+ * Usage: java ShmEnvironmentLoader [EnvironmentClass] [file]
+ * with defaults SampleMinesEnvironment and DEFAULT_FILE.
+ */
+public class ShmEnvironmentLoader implements Runnable {
+
+    public static final String DEFAULT_FILE = "/dev/shm/rlglue-env";
+
+    private final EnvironmentInterface env;
+    private final String file;
+
+    public ShmEnvironmentLoader(EnvironmentInterface env) {
+        this(env, DEFAULT_FILE);
+    }
+
+    public ShmEnvironmentLoader(EnvironmentInterface env, String file) {
+        this.env = env;
+        this.file = file;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String envClass = args.length > 0 ? args[0] : "SampleMinesEnvironment";
+        String file = args.length > 1 ? args[1] : DEFAULT_FILE;
+        new ShmEnvironmentLoader((EnvironmentInterface)Class.forName(envClass).getDeclaredConstructor().newInstance(), file).run();
+    }
+
+    public void run() {
+        ShmChannel channel;
+        try {
+            channel = ShmChannel.attach(file);
+        } catch (IOException ex) {
+            System.err.println("Could not attach to " + file + " :: " + ex);
+            return;
+        }
+
+        try {
+            while (true) {
+                int state = channel.receive();
+                channel.begin(state);
+                switch (state) {
+                case GlueProtocol.kEnvInit:
+                    channel.putString(env.env_init());
+                    break;
+                case GlueProtocol.kEnvStart:
+                    channel.putAbstractType(env.env_start());
+                    break;
+                case GlueProtocol.kEnvStep:
+                    Reward_observation_terminal rot = env.env_step(channel.getAction());
+                    channel.putInt(rot.isTerminal() ? 1 : 0);
+                    channel.putDouble(rot.getReward());
+                    channel.putAbstractType(rot.getObservation());
+                    break;
+                case GlueProtocol.kEnvCleanup:
+                    env.env_cleanup();
+                    break;
+                case GlueProtocol.kEnvMessage:
+                    channel.putString(env.env_message(channel.getString()));
+                    break;
+                case GlueProtocol.kRLTerm:
+                    return;
+                default:
+                    throw new IllegalStateException("Unknown message: " + state);
+                }
+                channel.send();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
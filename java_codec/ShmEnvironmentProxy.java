@@ -0,0 +1,64 @@
+import java.io.IOException;
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+import org.rlcommunity.rlglue.codec.types.Action;
+import org.rlcommunity.rlglue.codec.types.Observation;
+import org.rlcommunity.rlglue.codec.types.Reward_observation_terminal;
+
+/**
+ * An environment in another process, run by a ShmEnvironmentLoader and
+ * reached through a shared memory channel. Give it to LocalGlue in place of
+ * the environment to use the shared memory transport instead of sockets.
+ */
+public class ShmEnvironmentProxy implements EnvironmentInterface {
+
+    private final ShmChannel channel;
+
+    public ShmEnvironmentProxy() throws IOException {
+        this(ShmEnvironmentLoader.DEFAULT_FILE);
+    }
+
+    public ShmEnvironmentProxy(String file) throws IOException {
+        channel = ShmChannel.create(file, ShmChannel.DEFAULT_CAPACITY);
+    }
+
+    public String env_init() {
+        channel.begin(GlueProtocol.kEnvInit);
+        channel.call(GlueProtocol.kEnvInit);
+        return channel.getString();
+    }
+
+    public Observation env_start() {
+        channel.begin(GlueProtocol.kEnvStart);
+        channel.call(GlueProtocol.kEnvStart);
+        return channel.getObservation();
+    }
+
+    public Reward_observation_terminal env_step(Action action) {
+        channel.begin(GlueProtocol.kEnvStep);
+        channel.putAbstractType(action);
+        channel.call(GlueProtocol.kEnvStep);
+
+        boolean terminal = channel.getInt() != 0;
+        double reward = channel.getDouble();
+        return new Reward_observation_terminal(reward, channel.getObservation(), terminal);
+    }
+
+    public void env_cleanup() {
+        channel.begin(GlueProtocol.kEnvCleanup);
+        channel.call(GlueProtocol.kEnvCleanup);
+    }
+
+    public String env_message(String message) {
+        channel.begin(GlueProtocol.kEnvMessage);
+        channel.putString(message);
+        channel.call(GlueProtocol.kEnvMessage);
+        return channel.getString();
+    }
+
+    /* Stop the loader and remove the channel file */
+    public void close() {
+        channel.begin(GlueProtocol.kRLTerm);
+        channel.send();
+        channel.close();
+    }
+}
@@ -0,0 +1,25 @@
+import org.rlcommunity.rlglue.codec.EnvironmentInterface;
+
+/**
+ * An environment whose state can be saved and restored in process, so a
+ * planner can simulate many continuations from the same point.
+ *
+ * The state is a single int: everything else an environment holds (map,
+ * transition tables, settings) does not change while it runs. Restoring a
+ * state and stepping continues exactly as the environment would have from
+ * it, except that random draws (slips, transitions) are not part of the
+ * state. copy() gives an independent environment on the same model, sharing
+ * its tables, for rollouts that must not disturb the original.
+ *
+ * The same is available over RL-Glue with the env messages 'save-state',
+ * which answers with the state, and 'restore-state N'.
+ */
+public interface SimulatedEnvironment extends EnvironmentInterface {
+
+    public int saveState();
+
+    public void restoreState(int state);
+
+    /* A new environment at the same state, after env_init */
+    public SimulatedEnvironment copy();
+}
@@ -1,3 +1,7 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
 import java.util.Map;
 import java.util.HashMap;
@@ -27,6 +31,9 @@ public class SuperModelAgent implements AgentInterface {
     private double gamma;
     private static final int BATCH_SIZE = 1; /* increase this if value iteration is too slow */
     
+    // Maps observations to state indices
+    private ObservationIndexer observationIndexer;
+
     // The number of states
     private int S;
 
@@ -69,7 +76,8 @@ public class SuperModelAgent implements AgentInterface {
         gamma = Math.min(gamma, 0.95);
 
         // The the total number of states and actions
-        S = ts.getDiscreteObservationRange(0).getMax() + 1;
+        observationIndexer = new ObservationIndexer(ts);
+        S = observationIndexer.size();
         A = ts.getDiscreteActionRange(0).getMax() + 1;
 
         // Initialize the transition probabilities
@@ -94,7 +102,7 @@ public class SuperModelAgent implements AgentInterface {
     }
     
     public Action agent_start(Observation observation) {
-        state = observation.getInt(0);	
+        state = observationIndexer.index(observation);	
         action = chooseAction(state);
         visits[state][action]++;
         visitsSum[state]++;
@@ -107,7 +115,7 @@ public class SuperModelAgent implements AgentInterface {
     }
    
     public Action agent_step(double reward, Observation observation) {
-        int nextState = observation.getInt(0);
+        int nextState = observationIndexer.index(observation);
 			
         // Update our current beliefs about the transition probabilities
         Integer times = p[state][action].get(nextState);
@@ -153,6 +161,18 @@ public class SuperModelAgent implements AgentInterface {
             freezeLearning = false;
 	} else if (message.equals("what is your name?")) {
 	    return "SuperModelAgent";
+        } else if (message.startsWith("save_model")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "save_model needs a file name";
+            saveModel(parts[1]);
+            return "message understood, saving model";
+        } else if (message.startsWith("load_model")) {
+            String[] parts = message.split(" ");
+            if (parts.length < 2)
+                return "load_model needs a file name";
+            loadModel(parts[1]);
+            return "message understood, loading model";
         } else {
             System.out.println("Unhandled Message received: " + message);
         }
@@ -160,6 +180,47 @@ public class SuperModelAgent implements AgentInterface {
         return "Agent does not handle any messages.";
     }    
 
+    /* Write the transition counts (sparse), reward estimates, visit counts,
+     * value function and policy to a ModelCheckpoint.
+     */
+    private void saveModel(String fileName) {
+        try {
+            ModelCheckpoint.Writer w = new ModelCheckpoint.Writer(new File(fileName), getClass().getName(), S, A);
+            try {
+                w.writeCounts(p);
+                w.write(r);
+                w.write(visits);
+                w.write(visitsSum);
+                w.write(pi);
+                w.write(v);
+                w.out().writeInt(steps);
+                w.close();
+            } finally {
+                w.abort();
+            }
+        } catch (IOException ex) {
+            System.err.println("Problem writing model to file: " + fileName + " :: " + ex);
+        }
+    }
+
+    /* Restore everything saved by saveModel. The policy is restored as well,
+     * so no value iteration is needed before acting. Must be called after init.
+     */
+    private void loadModel(String fileName) {
+        try {
+            ModelCheckpoint.Reader rd = new ModelCheckpoint.Reader(new File(fileName), getClass().getName(), S, A);
+            rd.readCounts(p);
+            rd.read(r);
+            rd.read(visits);
+            rd.read(visitsSum);
+            rd.read(pi);
+            rd.read(v);
+            steps = rd.in().readInt();
+        } catch (IOException ex) {
+            System.err.println("Problem reading model from file: " + fileName + " :: " + ex);
+        }
+    }
+
     private double expectedReward(int s, int a, double[] v) {
         /* Sum up the values of all the states in which we ended up
          * from s doing a in the past (with multiplicities). */
@@ -0,0 +1,452 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes TableSnapshot checkpoints of a QTable on a background thread while
+ * the agent keeps updating the table.
+ *
+ * The table is divided into blocks of BLOCK_SIZE values within a row (the
+ * values of one action for consecutive states). Starting a checkpoint only
+ * increments the checkpoint epoch; no data is copied. The writer thread then
+ * walks the blocks in file order. Before the agent modifies
+ * a value it calls beforeWrite, and if the block has not yet been captured for
+ * the running checkpoint the agent copies that block first (copy-on-write).
+ * Each block is claimed by exactly one side through a compare-and-set on its
+ * entry in captured, so the file holds the table exactly as it was when
+ * checkpoint was called.
+ *
+ * beforeWrite also marks the block as dirty, which allows incremental
+ * checkpoints into a directory (checkpointIncremental): a full base snapshot
+ * base-G.rlvf followed by TableDelta files delta-G-S.rlvd holding only the
+ * blocks modified since the previous checkpoint. Every compactEvery deltas,
+ * or when more than half of the blocks are dirty, a new base of generation
+ * G + 1 is written and the files of older generations are removed. load
+ * restores the newest base and the deltas on top of it.
+ *
+ * Every file is written as FILE.tmp and renamed to FILE once it is complete
+ * (by TableSnapshot.Writer for snapshots, here for deltas), so a crash never
+ * leaves a partial checkpoint behind. At most one checkpoint
+ * runs at a time; a request made while one is still running is skipped.
+ *
+ * Block copies are recycled through a pool, so after the first checkpoints no
+ * garbage is created and the agent is not held up by the collector.
+ *
+ * Only the agent thread may call beforeWrite, tableReplaced and checkpoint.
+ * The table itself must allow reads from the writer thread while the agent
+ * writes to other blocks, which both HeapQTable and MappedQTable do.
+ */
+public class TableCheckpointer {
+
+    public static final int BLOCK_SIZE = 512;
+
+    private static final Pattern BASE = Pattern.compile("base-(\\d+)\\.rlvf");
+    private static final Pattern DELTA = Pattern.compile("delta-(\\d+)-(\\d+)\\.rlvd");
+
+    private final QTable table;
+    private final String agentClass;
+    private final int rows;
+    private final int cols;
+    private final int blocksPerRow;
+    private final int numBlocks;
+
+    // captured.get(b) is the last epoch for which block b was captured,
+    // or minus the running epoch while one side is capturing it
+    private final AtomicIntegerArray captured;
+
+    // Copies of the blocks the agent modified before the writer reached them
+    private final double[][] saved;
+    private final ConcurrentLinkedQueue<double[]> pool = new ConcurrentLinkedQueue<double[]>();
+
+    // Blocks modified since the last incremental checkpoint, one bit per block,
+    // and the set handed to the writer, which clears it when it is done
+    private long[] dirty;
+    private long[] pendingDirty;
+
+    // Epoch of the running checkpoint, 0 if none is running
+    private volatile int epoch = 0;
+    private int lastEpoch = 0;
+
+    // State of the incremental chain: directory, generation of the newest
+    // base and number of deltas written on top of it
+    private File chainDir = null;
+    private int generation = 0;
+    private int sequence = 0;
+    private volatile boolean needsBase = true;
+
+    private final ExecutorService writer;
+    private Future<?> running;
+
+    private int written = 0;
+    private int skipped = 0;
+    private int bases = 0;
+    private int deltas = 0;
+    private volatile int failed = 0;
+    private volatile long bytesWritten = 0;
+
+    public TableCheckpointer(QTable table, String agentClass) {
+        this.table = table;
+        this.agentClass = agentClass;
+
+        rows = table.numActions();
+        cols = table.numStates();
+        blocksPerRow = (cols + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        numBlocks = rows * blocksPerRow;
+
+        captured = new AtomicIntegerArray(numBlocks);
+        saved = new double[numBlocks][];
+        dirty = new long[(numBlocks + 63) / 64];
+        pendingDirty = new long[dirty.length];
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "table-checkpointer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /* Must be called before the value of action row in state col is modified */
+    public void beforeWrite(int row, int col) {
+        int b = row * blocksPerRow + col / BLOCK_SIZE;
+        dirty[b >>> 6] |= 1L << b;
+
+        int e = epoch;
+        if (e == 0)
+            return;
+
+        if (captured.get(b) == e)
+            return;
+
+        if (claim(b, e)) {
+            int start = (b % blocksPerRow) * BLOCK_SIZE;
+            int n = Math.min(BLOCK_SIZE, cols - start);
+
+            double[] copy = pool.poll();
+            if (copy == null)
+                copy = new double[BLOCK_SIZE];
+            table.read(row, start, copy, 0, n);
+            saved[b] = copy;
+            captured.set(b, e);
+        }
+    }
+
+    /* Must be called after the whole table was replaced without beforeWrite,
+     * for example by loading it from a file. The next incremental checkpoint
+     * is then a full base.
+     */
+    public void tableReplaced() {
+        await();
+        needsBase = true;
+    }
+
+    /* Start writing a checkpoint of the current table to file. Returns false
+     * if the previous checkpoint is still being written, in which case this
+     * one is skipped.
+     */
+    public boolean checkpoint(final File file) {
+        if (isRunning()) {
+            skipped++;
+            return false;
+        }
+
+        final int e = begin();
+        running = writer.submit(new Runnable() {
+            public void run() {
+                try {
+                    writeSnapshot(file, e);
+                } catch (IOException ex) {
+                    failed++;
+                    System.err.println("Problem writing checkpoint to file: " + file + " :: " + ex);
+                }
+            }
+        });
+        return true;
+    }
+
+    /* Start writing an incremental checkpoint into dir, with a new base after
+     * every compactEvery deltas. Returns false if the previous checkpoint is
+     * still being written, in which case this one is skipped.
+     */
+    public boolean checkpointIncremental(final File dir, int compactEvery) {
+        if (isRunning()) {
+            skipped++;
+            return false;
+        }
+
+        if (!dir.equals(chainDir)) {
+            dir.mkdirs();
+            chainDir = dir;
+            generation = latestGeneration(dir);
+            needsBase = true;
+        }
+
+        final long[] changed = dirty;
+        dirty = pendingDirty;
+        pendingDirty = changed;
+
+        final boolean base = needsBase || sequence >= compactEvery || countBits(changed) > numBlocks / 2;
+        if (base) {
+            generation++;
+            sequence = 0;
+            bases++;
+        } else {
+            sequence++;
+            deltas++;
+        }
+        needsBase = false;
+
+        final int g = generation;
+        final int s = sequence;
+        final int e = begin();
+        running = writer.submit(new Runnable() {
+            public void run() {
+                try {
+                    if (base) {
+                        writeSnapshot(baseFile(dir, g), e);
+                        removeOlderGenerations(dir, g);
+                    } else {
+                        writeDelta(deltaFile(dir, g, s), e, changed, g, s);
+                    }
+                } catch (IOException ex) {
+                    failed++;
+                    needsBase = true;
+                    System.err.println("Problem writing checkpoint to directory: " + dir + " :: " + ex);
+                } finally {
+                    Arrays.fill(changed, 0);
+                }
+            }
+        });
+        return true;
+    }
+
+    /* Restore a table from the newest base in dir and the deltas on top of it */
+    public static void load(File dir, String agentClass, QTable table) throws IOException {
+        int g = latestGeneration(dir);
+        if (g == 0)
+            throw new IOException("No checkpoint in " + dir);
+
+        TableSnapshot.read(baseFile(dir, g), agentClass, table);
+        for (int s = 1; deltaFile(dir, g, s).exists(); s++)
+            TableDelta.apply(deltaFile(dir, g, s), agentClass, g, s, table);
+    }
+
+    /* Wait until the running checkpoint, if any, is complete */
+    public void await() {
+        if (running == null)
+            return;
+
+        try {
+            running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            System.err.println("Checkpoint failed :: " + ex.getCause());
+        }
+    }
+
+    /* Finish the running checkpoint and stop the writer thread */
+    public void close() {
+        await();
+        writer.shutdown();
+    }
+
+    public boolean isRunning() {
+        return running != null && !running.isDone();
+    }
+
+    public int written() {
+        return written;
+    }
+
+    public int skipped() {
+        return skipped;
+    }
+
+    public int bases() {
+        return bases;
+    }
+
+    public int deltas() {
+        return deltas;
+    }
+
+    public int failed() {
+        return failed;
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    private int begin() {
+        int e = ++lastEpoch;
+        epoch = e;
+        written++;
+        return e;
+    }
+
+    // Runs on the writer thread
+    private void writeSnapshot(File file, int e) throws IOException {
+        double[] buffer = new double[BLOCK_SIZE];
+
+        // TableSnapshot.Writer renames its own temporary file over file
+        TableSnapshot.Writer out = null;
+        try {
+            out = new TableSnapshot.Writer(file, agentClass, rows, cols);
+            for (int b = 0; b < numBlocks; b++) {
+                int n = blockLength(b);
+                out.put(capture(b, e, buffer), 0, n);
+                release(b);
+            }
+        } finally {
+            finish(e);
+            if (out != null)
+                out.close();
+        }
+        bytesWritten += file.length();
+    }
+
+    // Runs on the writer thread
+    private void writeDelta(File file, int e, long[] changed, int g, int s) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        double[] buffer = new double[BLOCK_SIZE];
+
+        try {
+            TableDelta.Writer out = null;
+            try {
+                out = new TableDelta.Writer(tmp, agentClass, rows, cols, BLOCK_SIZE, g, s);
+                for (int b = 0; b < numBlocks; b++) {
+                    if ((changed[b >>> 6] & (1L << b)) != 0)
+                        out.put(b, capture(b, e, buffer), 0, blockLength(b));
+                    else if (claim(b, e))
+                        captured.set(b, e);
+                    release(b);
+                }
+            } finally {
+                finish(e);
+                if (out != null)
+                    out.close();
+            }
+            commit(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /* Return the values of block b as of the start of checkpoint e, either
+     * read from the table into buffer or from the copy made by the agent.
+     */
+    private double[] capture(int b, int e, double[] buffer) {
+        if (claim(b, e)) {
+            int start = (b % blocksPerRow) * BLOCK_SIZE;
+            table.read(b / blocksPerRow, start, buffer, 0, blockLength(b));
+            captured.set(b, e);
+            return buffer;
+        }
+
+        return saved[b];
+    }
+
+    private void commit(File tmp, File file) throws IOException {
+        Files.move(tmp.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        bytesWritten += file.length();
+    }
+
+    /* Release the agent from the running checkpoint. Blocks the writer did not
+     * reach are marked as captured so that no copy is left behind.
+     */
+    private void finish(int e) {
+        for (int b = 0; b < numBlocks; b++) {
+            if (captured.get(b) != e)
+                claim(b, e);
+            captured.set(b, e);
+            release(b);
+        }
+        epoch = 0;
+    }
+
+    private void release(int b) {
+        if (saved[b] != null)
+            pool.offer(saved[b]);
+        saved[b] = null;
+    }
+
+    /* Claim block b for capturing in epoch e. Returns false if it has already
+     * been captured, after waiting for the other side to finish with it.
+     */
+    private boolean claim(int b, int e) {
+        while (true) {
+            int v = captured.get(b);
+            if (v == e)
+                return false;
+            if (v == -e) {
+                Thread.yield();
+                continue;
+            }
+            if (captured.compareAndSet(b, v, -e))
+                return true;
+        }
+    }
+
+    private int blockLength(int b) {
+        return Math.min(BLOCK_SIZE, cols - (b % blocksPerRow) * BLOCK_SIZE);
+    }
+
+    private static int countBits(long[] bits) {
+        int n = 0;
+        for (long word : bits)
+            n += Long.bitCount(word);
+        return n;
+    }
+
+    private static File baseFile(File dir, int g) {
+        return new File(dir, "base-" + g + ".rlvf");
+    }
+
+    private static File deltaFile(File dir, int g, int s) {
+        return new File(dir, "delta-" + g + "-" + s + ".rlvd");
+    }
+
+    /* The generation of the newest complete base in dir, 0 if there is none */
+    private static int latestGeneration(File dir) {
+        int latest = 0;
+        String[] names = dir.list();
+        if (names == null)
+            return 0;
+
+        for (String name : names) {
+            Matcher m = BASE.matcher(name);
+            if (m.matches())
+                latest = Math.max(latest, Integer.parseInt(m.group(1)));
+        }
+        return latest;
+    }
+
+    private static void removeOlderGenerations(File dir, int g) {
+        String[] names = dir.list();
+        if (names == null)
+            return;
+
+        for (String name : names) {
+            Matcher base = BASE.matcher(name);
+            Matcher delta = DELTA.matcher(name);
+            if ((base.matches() && Integer.parseInt(base.group(1)) < g) ||
+                (delta.matches() && Integer.parseInt(delta.group(1)) < g))
+                new File(dir, name).delete();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Delta file holding only the changed blocks of a table of doubles, relative
+ * to the previous checkpoint of the same chain (see TableCheckpointer).
+ *
+ * File layout (all numbers little endian):
+ *
+ *   offset  size  field
+ *        0     4  magic "RLVD"
+ *        4     4  format version
+ *        8     4  dtype (TableSnapshot.DTYPE_FLOAT64)
+ *       12     4  header size in bytes, the offset of the payload
+ *       16     8  number of rows of the table
+ *       24     8  number of columns of the table
+ *       32     8  CRC32 of the payload
+ *       40     4  block size in doubles
+ *       44     4  number of blocks in the file
+ *       48     4  generation of the base snapshot the delta applies to
+ *       52     4  sequence number of the delta within its generation
+ *       56     4  length n of the agent class name
+ *       60     n  agent class name, UTF-8, padded with zeros to a multiple of 8
+ *   header   ...  payload: for each block its index (8 bytes) followed by its
+ *                 values, which run to the end of the block or of the row
+ *
+ * Block b covers row b / blocksPerRow, columns (b % blocksPerRow) * blockSize
+ * onwards, with blocksPerRow = ceil(cols / blockSize).
+ */
+public class TableDelta {
+
+    public static final int MAGIC = 0x44564C52; // "RLVD" in little endian
+    public static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* Writes the blocks of one delta in any order */
+    static class Writer {
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 crc = new CRC32();
+
+        private final byte[] name;
+        private final int headerSize;
+        private final long rows, cols;
+        private final int blockSize, generation, sequence;
+
+        private long position;
+        private int blocks;
+
+        Writer(File file, String agentClass, long rows, long cols, int blockSize,
+               int generation, int sequence) throws IOException {
+            this.rows = rows;
+            this.cols = cols;
+            this.blockSize = blockSize;
+            this.generation = generation;
+            this.sequence = sequence;
+
+            name = agentClass.getBytes(UTF8);
+            headerSize = 60 + ((name.length + 7) & ~7);
+
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            position = headerSize;
+        }
+
+        void put(int block, double[] src, int offset, int count) throws IOException {
+            ensure(8);
+            buffer.putLong(block);
+
+            while (count > 0) {
+                ensure(8);
+                int n = Math.min(count, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(src, offset, n);
+                buffer.position(buffer.position() + n * 8);
+                offset += n;
+                count -= n;
+            }
+            blocks++;
+        }
+
+        /* Write the header and close the file */
+        void close() throws IOException {
+            try {
+                flush();
+
+                ByteBuffer h = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+                h.putInt(MAGIC).putInt(VERSION).putInt(TableSnapshot.DTYPE_FLOAT64).putInt(headerSize);
+                h.putLong(rows).putLong(cols).putLong(crc.getValue());
+                h.putInt(blockSize).putInt(blocks).putInt(generation).putInt(sequence);
+                h.putInt(name.length).put(name);
+                h.clear();
+
+                channel.write(h, 0);
+                channel.force(true);
+            } finally {
+                raf.close();
+            }
+        }
+
+        long bytes() {
+            return position + buffer.position();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            buffer.clear();
+        }
+    }
+
+    /* Apply a delta to a table that holds the previous checkpoint of the chain */
+    public static void apply(File file, String agentClass, int generation, int sequence,
+                             QTable table) throws IOException {
+        long rows = table.numActions();
+        long cols = table.numStates();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Delta is too large: " + file);
+            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            b.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (b.remaining() < 60 || b.getInt() != MAGIC)
+                throw new IOException("Not a delta checkpoint: " + file);
+            int version = b.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported delta version " + version);
+            if (b.getInt() != TableSnapshot.DTYPE_FLOAT64)
+                throw new IOException("Unsupported delta dtype");
+
+            int headerSize = b.getInt();
+            long fileRows = b.getLong();
+            long fileCols = b.getLong();
+            long checksum = b.getLong();
+            int blockSize = b.getInt();
+            int blocks = b.getInt();
+            int fileGeneration = b.getInt();
+            int fileSequence = b.getInt();
+
+            int nameLength = b.getInt();
+            if (nameLength < 0 || 60 + nameLength > headerSize || headerSize > b.limit())
+                throw new IOException("Corrupt delta header");
+
+            byte[] name = new byte[nameLength];
+            b.get(name);
+            String writtenBy = new String(name, UTF8);
+
+            if (fileRows != rows || fileCols != cols)
+                throw new IOException("Delta is " + fileRows + "x" + fileCols +
+                                      " but the table is " + rows + "x" + cols);
+            if (!writtenBy.equals(agentClass))
+                throw new IOException("Delta was written by " + writtenBy + ", not " + agentClass);
+            if (fileGeneration != generation || fileSequence != sequence)
+                throw new IOException("Delta " + fileGeneration + "/" + fileSequence +
+                                      " does not follow " + generation + "/" + (sequence - 1));
+            if (blockSize <= 0)
+                throw new IOException("Corrupt delta header");
+
+            b.position(headerSize);
+            CRC32 crc = new CRC32();
+            crc.update(b.duplicate());
+            if (crc.getValue() != checksum)
+                throw new IOException("Delta checksum mismatch");
+
+            int blocksPerRow = (int)((cols + blockSize - 1) / blockSize);
+            double[] buffer = new double[blockSize];
+            for (int i = 0; i < blocks; i++) {
+                long block = b.getLong();
+                if (block < 0 || block >= rows * blocksPerRow)
+                    throw new IOException("Corrupt delta block " + block);
+
+                int row = (int)(block / blocksPerRow);
+                int start = (int)(block % blocksPerRow) * blockSize;
+                int n = (int)Math.min(blockSize, cols - start);
+
+                b.asDoubleBuffer().get(buffer, 0, n);
+                table.write(row, start, buffer, 0, n);
+                b.position(b.position() + n * 8);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
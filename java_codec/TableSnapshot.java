@@ -0,0 +1,350 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary snapshot of a table of doubles, such as the value function
+ * valueFunction[a][s] of the Sarsa agents.
+ *
+ * File layout (all numbers little endian):
+ *
+ *   offset  size  field
+ *        0     4  magic "RLVF"
+ *        4     4  format version
+ *        8     4  dtype (DTYPE_FLOAT64)
+ *       12     4  header size in bytes, the offset of the payload
+ *       16     8  number of rows (actions)
+ *       24     8  number of columns (states)
+ *       32     8  CRC32 of the payload
+ *       40     4  length n of the agent class name
+ *       44     n  agent class name, UTF-8, padded with zeros to a multiple of 8
+ *   header   ...  payload: rows * cols doubles, row by row
+ *
+ * The payload is written and read through memory mapped regions with bulk
+ * DoubleBuffer transfers, so saving or loading a table costs about as much as
+ * copying it. Regions are at most MAP_CHUNK bytes, which keeps tables larger
+ * than 2GB within the limits of a single MappedByteBuffer.
+ *
+ * Files written by the old SampleSarsaAgent (raw big endian doubles, no
+ * header) are still accepted by read.
+ */
+public class TableSnapshot {
+
+    public static final int MAGIC = 0x46564C52; // "RLVF" in little endian
+    public static final int VERSION = 1;
+    public static final int DTYPE_FLOAT64 = 1;
+
+    static final long MAP_CHUNK = 1L << 30;
+
+    // Number of values moved at a time between a QTable and a file
+    static final int COPY_BUFFER = 1 << 14;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* The fixed and variable parts in front of the payload */
+    static class Header {
+        int version = VERSION;
+        int dtype = DTYPE_FLOAT64;
+        int headerSize;
+        long rows;
+        long cols;
+        long checksum;
+        String agentClass;
+
+        Header(String agentClass, long rows, long cols) {
+            this.agentClass = agentClass;
+            this.rows = rows;
+            this.cols = cols;
+            this.headerSize = 44 + padded(agentClass.getBytes(UTF8).length);
+        }
+
+        private Header() {
+        }
+
+        ByteBuffer encode() {
+            byte[] name = agentClass.getBytes(UTF8);
+            ByteBuffer b = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+            b.putInt(MAGIC).putInt(version).putInt(dtype).putInt(headerSize);
+            b.putLong(rows).putLong(cols).putLong(checksum);
+            b.putInt(name.length).put(name);
+            b.clear();
+            return b;
+        }
+
+        /* Read a header, or return null if the file does not start with one */
+        static Header decode(FileChannel channel) throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(b, 0) < 44)
+                return null;
+            b.flip();
+
+            if (b.getInt() != MAGIC)
+                return null;
+
+            Header h = new Header();
+            h.version = b.getInt();
+            h.dtype = b.getInt();
+            h.headerSize = b.getInt();
+            h.rows = b.getLong();
+            h.cols = b.getLong();
+            h.checksum = b.getLong();
+
+            int nameLength = b.getInt();
+            if (nameLength < 0 || 44 + nameLength > h.headerSize)
+                throw new IOException("Corrupt snapshot header");
+
+            ByteBuffer name = ByteBuffer.allocate(nameLength);
+            channel.read(name, 44);
+            h.agentClass = new String(name.array(), UTF8);
+
+            return h;
+        }
+
+        private static int padded(int n) {
+            return (n + 7) & ~7;
+        }
+    }
+
+    /* Write the table to a file, replacing its previous contents */
+    public static void write(File file, String agentClass, double[][] table) throws IOException {
+        write(file, agentClass, new HeapQTable(table));
+    }
+
+    public static void write(File file, String agentClass, QTable table) throws IOException {
+        int rows = table.numActions();
+        int cols = table.numStates();
+        double[] buffer = new double[Math.max(1, Math.min(COPY_BUFFER, cols))];
+
+        Writer writer = new Writer(file, agentClass, rows, cols);
+        try {
+            for (int a = 0; a < rows; a++) {
+                for (int s = 0; s < cols; s += buffer.length) {
+                    int n = Math.min(buffer.length, cols - s);
+                    table.read(a, s, buffer, 0, n);
+                    writer.put(buffer, 0, n);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot whose payload is produced piece by piece, in row order.
+     * Everything goes to a temporary file next to the target. The header, with
+     * the checksum, is written by close once the whole payload is in place, and
+     * the temporary file is then renamed over the target, so the target always
+     * holds either its old contents or the complete new snapshot.
+     */
+    static class Writer {
+        private final File file;
+        private final File tmp;
+        private final Header header;
+        private final RandomAccessFile raf;
+        private final PayloadCursor cursor;
+        private final long payloadBytes;
+        private long written;
+
+        Writer(File file, String agentClass, long rows, long cols) throws IOException {
+            header = new Header(agentClass, rows, cols);
+            payloadBytes = rows * cols * 8;
+
+            this.file = file;
+            tmp = new File(file.getPath() + ".tmp");
+            tmp.delete();
+            raf = new RandomAccessFile(tmp, "rw");
+            raf.setLength(header.headerSize + payloadBytes);
+            cursor = new PayloadCursor(raf.getChannel(), FileChannel.MapMode.READ_WRITE,
+                                       header.headerSize, payloadBytes);
+        }
+
+        void put(double[] src, int offset, int count) throws IOException {
+            cursor.put(src, offset, count);
+            written += count * 8L;
+        }
+
+        /* Finish the file and move it into place. If the payload is incomplete
+         * the temporary file is dropped and the target is left as it was.
+         */
+        void close() throws IOException {
+            boolean complete = written == payloadBytes;
+            try {
+                if (complete) {
+                    FileChannel channel = raf.getChannel();
+                    header.checksum = cursor.checksum();
+                    channel.write(header.encode(), 0);
+                    channel.force(true);
+                }
+            } catch (IOException ex) {
+                complete = false;
+                throw ex;
+            } finally {
+                raf.close();
+                if (complete)
+                    Files.move(tmp.toPath(), file.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                else
+                    tmp.delete();
+            }
+        }
+    }
+
+    /* Read a snapshot into an existing table of the same shape */
+    public static void read(File file, String agentClass, double[][] table) throws IOException {
+        read(file, agentClass, new HeapQTable(table));
+    }
+
+    public static void read(File file, String agentClass, QTable table) throws IOException {
+        long rows = table.numActions();
+        long cols = table.numStates();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            Header header = Header.decode(channel);
+
+            if (header == null) {
+                readLegacy(channel, table);
+                return;
+            }
+
+            if (header.version != VERSION)
+                throw new IOException("Unsupported snapshot version " + header.version);
+            if (header.dtype != DTYPE_FLOAT64)
+                throw new IOException("Unsupported snapshot dtype " + header.dtype);
+            if (header.rows != rows || header.cols != cols)
+                throw new IOException("Snapshot is " + header.rows + "x" + header.cols +
+                                      " but the table is " + rows + "x" + cols);
+            if (!header.agentClass.equals(agentClass))
+                throw new IOException("Snapshot was written by " + header.agentClass + ", not " + agentClass);
+
+            long payloadBytes = rows * cols * 8;
+            if (channel.size() < header.headerSize + payloadBytes)
+                throw new IOException("Snapshot is truncated");
+
+            PayloadCursor cursor = new PayloadCursor(channel, FileChannel.MapMode.READ_ONLY,
+                                                     header.headerSize, payloadBytes);
+            if (cursor.checksum() != header.checksum)
+                throw new IOException("Snapshot checksum mismatch");
+
+            cursor.get(table);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /* The format of the original saveValueFunction: raw big endian doubles */
+    private static void readLegacy(FileChannel channel, QTable table) throws IOException {
+        long rows = table.numActions();
+        long cols = table.numStates();
+
+        if (channel.size() != rows * cols * 8)
+            throw new IOException("Not a value function snapshot");
+
+        PayloadCursor cursor = new PayloadCursor(channel, FileChannel.MapMode.READ_ONLY, 0, rows * cols * 8);
+        cursor.order(ByteOrder.BIG_ENDIAN);
+        cursor.get(table);
+    }
+
+    /**
+     * Sequential access to the payload of a snapshot through a series of
+     * mapped regions of at most MAP_CHUNK bytes.
+     */
+    static class PayloadCursor {
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long start;
+        private final long length;
+        private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+
+        private long chunkStart = -1;
+        private MappedByteBuffer chunk;
+        private DoubleBuffer doubles;
+
+        // Position in the payload, in doubles
+        private long position;
+
+        PayloadCursor(FileChannel channel, FileChannel.MapMode mode, long start, long length) {
+            this.channel = channel;
+            this.mode = mode;
+            this.start = start;
+            this.length = length;
+        }
+
+        void order(ByteOrder order) {
+            this.order = order;
+        }
+
+        void put(double[] src, int offset, int count) throws IOException {
+            while (count > 0) {
+                int n = Math.min(count, available());
+                doubles.put(src, offset, n);
+                offset += n;
+                count -= n;
+                position += n;
+            }
+        }
+
+        void get(double[] dst, int offset, int count) throws IOException {
+            while (count > 0) {
+                int n = Math.min(count, available());
+                doubles.get(dst, offset, n);
+                offset += n;
+                count -= n;
+                position += n;
+            }
+        }
+
+        /* Read the rest of the payload into a table, row by row */
+        void get(QTable table) throws IOException {
+            int cols = table.numStates();
+            double[] buffer = new double[Math.max(1, Math.min(COPY_BUFFER, cols))];
+
+            for (int a = 0; a < table.numActions(); a++) {
+                for (int s = 0; s < cols; s += buffer.length) {
+                    int n = Math.min(buffer.length, cols - s);
+                    get(buffer, 0, n);
+                    table.write(a, s, buffer, 0, n);
+                }
+            }
+        }
+
+        /* CRC32 of the whole payload, read back through fresh mappings */
+        long checksum() throws IOException {
+            CRC32 crc = new CRC32();
+            for (long p = 0; p < length; p += MAP_CHUNK) {
+                long size = Math.min(MAP_CHUNK, length - p);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, start + p, size));
+            }
+            return crc.getValue();
+        }
+
+        /* Map the region containing the current position and return how
+         * many doubles can be transferred before the end of the region.
+         */
+        private int available() throws IOException {
+            long byteOffset = position * 8;
+            long wanted = byteOffset - byteOffset % MAP_CHUNK;
+
+            if (wanted != chunkStart) {
+                long size = Math.min(MAP_CHUNK, length - wanted);
+                chunk = channel.map(mode, start + wanted, size);
+                chunk.order(order);
+                doubles = chunk.asDoubleBuffer();
+                chunkStart = wanted;
+            }
+
+            doubles.position((int)((byteOffset - chunkStart) / 8));
+            return doubles.remaining();
+        }
+    }
+}
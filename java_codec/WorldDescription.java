@@ -0,0 +1,384 @@
+/*
+ * Copyright 2008 Brian Tanner
+ * http://rl-glue-ext.googlecode.com/
+ * brian@tannerpages.com
+ * http://brian.tannerpages.com
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import java.util.Random;
+
+/**
+ * This class holds all of the internal state information about the environment,
+ * and manages the dynamics, state update, reward calculation, etc.
+ *
+ * The map is compiled once, when the world is created, into flat tables
+ * indexed by the state number (col * numRows + row): the state reached by
+ * each action, the reward and whether the state is terminal. The position of
+ * the agent is kept as a state number, so a step is a couple of array loads.
+ * The valid, non-terminal states the agent can start in are listed once as
+ * well, so a random start takes a single draw.
+ *
+ * With a slip probability a move is replaced by one of its two perpendicular
+ * moves.  Those targets are in the table already, so a slip only changes the
+ * action used to index it; one random int decides both whether and where the
+ * agent slips.
+ * @author btanner
+ */
+class WorldDescription {
+
+    static final int NUM_ACTIONS = 4;
+
+    //PERPENDICULAR[action * 2 + side] are the two moves at right angles to action
+    private static final int[] PERPENDICULAR = {2, 3, 2, 3, 0, 1, 0, 1};
+
+    //The largest part of the map print_state shows
+    private static final int PRINT_ROWS = 40;
+    private static final int PRINT_COLS = 60;
+
+    private final int numRows;
+    private final int numCols;
+    private final int[][] theMap;
+    private Random randGen = new Random();
+
+    //next[state * NUM_ACTIONS + action] is the state reached by taking action in state
+    private final int[] next;
+    private final double[] reward;
+    private final boolean[] terminal;
+    private final boolean[] valid;
+
+    //The states an episode can start in, and the position of each state in
+    //startStates (-1 if it is not a start state)
+    private final int[] startStates;
+    private final int[] startIndex;
+
+    //The state of the agent
+    private int agentState;
+
+    //A move slips if 31 random bits are below this, a probability times 2^31
+    private long slipThreshold = 0;
+
+    /* A world on the same map and tables, with its own agent and random generator */
+    private WorldDescription(WorldDescription other) {
+        theMap = other.theMap;
+        numRows = other.numRows;
+        numCols = other.numCols;
+        next = other.next;
+        reward = other.reward;
+        terminal = other.terminal;
+        valid = other.valid;
+        startStates = other.startStates;
+        startIndex = other.startIndex;
+        agentState = other.agentState;
+        slipThreshold = other.slipThreshold;
+    }
+
+    WorldDescription copy() {
+        return new WorldDescription(this);
+    }
+
+    public WorldDescription(int[][] worldMap) {
+        this.theMap = worldMap;
+
+        this.numRows = theMap.length;
+        this.numCols = theMap[0].length;
+
+        int numStates = getNumStates();
+        next = new int[numStates * NUM_ACTIONS];
+        reward = new double[numStates];
+        terminal = new boolean[numStates];
+        valid = new boolean[numStates];
+
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < numCols; col++) {
+                int state = stateOf(row, col);
+                valid[state] = isValid(row, col);
+                terminal[state] = isTerminal(row, col);
+                reward[state] = rewardOf(row, col);
+
+                for (int action = 0; action < NUM_ACTIONS; action++)
+                    next[state * NUM_ACTIONS + action] = target(row, col, action);
+            }
+        }
+
+        startIndex = new int[numStates];
+        int numStarts = 0;
+        for (int state = 0; state < numStates; state++) {
+            if (valid[state] && !terminal[state])
+                startIndex[state] = numStarts++;
+            else
+                startIndex[state] = -1;
+        }
+
+        startStates = new int[numStarts];
+        for (int state = 0; state < numStates; state++)
+            if (startIndex[state] >= 0)
+                startStates[startIndex[state]] = state;
+    }
+
+    public int getNumStates() {
+        return numRows * numCols;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    int[][] getMap() {
+        return theMap;
+    }
+
+    /**
+     * Puts the agent into a random state, drawn uniformly from the valid
+     * non-terminal states.
+     */
+    public void setRandomAgentState() {
+        this.agentState = randomStartState(randGen);
+    }
+
+    /**
+     * Draw a state uniformly from the valid non-terminal states.
+     * @param rand
+     * @return
+     */
+    int randomStartState(Random rand) {
+        if (startStates.length == 0)
+            throw new IllegalStateException("The map has no valid non-terminal state to start in");
+
+        return startStates[rand.nextInt(startStates.length)];
+    }
+
+    /**
+     * Return the state at row,col if an episode can start there, otherwise -1.
+     * @param row
+     * @param col
+     * @return
+     */
+    int startState(int row, int col) {
+        if (row < 0 || row >= numRows || col < 0 || col >= numCols)
+            return -1;
+
+        int state = stateOf(row, col);
+        return startIndex[state] >= 0 ? state : -1;
+    }
+
+    public int getNumStartStates() {
+        return startStates.length;
+    }
+
+    /**
+     * Return the state of the agent as a single number.
+     * @return
+     */
+    public int getState() {
+        return agentState;
+    }
+
+    /**
+     * Put the agent in any valid state, terminal or not.
+     * @param state
+     */
+    void setState(int state) {
+        if (state < 0 || state >= getNumStates() || !valid[state])
+            throw new IllegalArgumentException("Not a valid state: " + state);
+        agentState = state;
+    }
+
+    public int getAgentRow() {
+        return agentState % numRows;
+    }
+
+    public int getAgentCol() {
+        return agentState / numRows;
+    }
+
+    /**
+     * Sets the agent current state to startRow,startCol.
+     * @param startRow
+     * @param startCol
+     * @return true if the state is valid and not terminal, otherwise
+     * return false (the agent is then left where it was).
+     */
+    boolean setAgentState(int startRow, int startCol) {
+        if (startRow < 0 || startRow >= numRows || startCol < 0 || startCol >= numCols)
+            return false;
+
+        int state = stateOf(startRow, startCol);
+        if (startIndex[state] < 0)
+            return false;
+
+        this.agentState = state;
+        return true;
+    }
+
+    public boolean isTerminal() {
+        return terminal[agentState];
+    }
+
+    /**
+     * Return the reward for the current agent state.
+     * @return
+     */
+    public double getReward() {
+        return reward[agentState];
+    }
+
+    public void updatePosition(int theAction) {
+        agentState = nextState(agentState, theAction, randGen);
+    }
+
+    void setSlipProbability(double p) {
+        slipThreshold = Math.round(p * (1L << 31));
+    }
+
+    /* The state reached by a move that may slip */
+    int nextState(int state, int theAction, Random rand) {
+        if (slipThreshold > 0 && theAction >= 0 && theAction < NUM_ACTIONS) {
+            int r = rand.nextInt();
+            if ((r & 0x7FFFFFFF) < slipThreshold)
+                theAction = PERPENDICULAR[theAction * 2 + (r >>> 31)];
+        }
+        return nextState(state, theAction);
+    }
+
+    /* The dynamics for any state, for callers that keep track of several
+     * agents on the same map (see BatchMinesEnvironment).
+     */
+    int nextState(int state, int theAction) {
+        /* Actions outside 0-3 leave the agent where it is */
+        if (theAction >= 0 && theAction < NUM_ACTIONS)
+            return next[state * NUM_ACTIONS + theAction];
+        return state;
+    }
+
+    double reward(int state) {
+        return reward[state];
+    }
+
+    boolean isTerminal(int state) {
+        return terminal[state];
+    }
+
+    private int stateOf(int row, int col) {
+        return col * numRows + row;
+    }
+
+    private boolean isTerminal(int row, int col) {
+        if (theMap[row][col] == SampleMinesEnvironment.WORLD_GOAL || theMap[row][col] == SampleMinesEnvironment.WORLD_MINE) {
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isValid(int row, int col) {
+        boolean valid = false;
+        if (row < numRows && row >= 0 && col < numCols && col >= 0) {
+            if (theMap[row][col] != SampleMinesEnvironment.WORLD_OBSTACLE) {
+                valid = true;
+            }
+        }
+        return valid;
+    }
+
+    private double rewardOf(int row, int col) {
+        if (theMap[row][col] == SampleMinesEnvironment.WORLD_GOAL) {
+            return 10.0f;
+        }
+
+        if (theMap[row][col] == SampleMinesEnvironment.WORLD_MINE) {
+            return -100.0f;
+        }
+
+        return -1.0f;
+    }
+
+    /* The state reached from row,col by an action. When the move would result
+     * in hitting an obstacle, the agent simply doesn't move.
+     */
+    private int target(int row, int col, int theAction) {
+        int newRow = row;
+        int newCol = col;
+
+
+        if (theAction == 0) {/*move down*/
+            newCol = col - 1;
+        }
+        if (theAction == 1) { /*move up*/
+            newCol = col + 1;
+        }
+        if (theAction == 2) {/*move left*/
+            newRow = row - 1;
+        }
+        if (theAction == 3) { /*move right*/
+            newRow = row + 1;
+        }
+
+
+        /*Check if new position is out of bounds or inside an obstacle */
+        if (isValid(newRow, newCol)) {
+            return stateOf(newRow, newCol);
+        }
+        return stateOf(row, col);
+    }
+
+    /**
+     * Print out the current state to the screen.  Large maps are shown in a
+     * window of at most PRINT_ROWS x PRINT_COLS cells around the agent.
+     */
+    void print_state() {
+        int agentRow = getAgentRow();
+        int agentCol = getAgentCol();
+
+        int fromRow = Math.max(0, Math.min(agentRow - PRINT_ROWS / 2, numRows - PRINT_ROWS));
+        int toRow = Math.min(numRows, fromRow + PRINT_ROWS);
+        int fromCol = Math.max(0, Math.min(agentCol - PRINT_COLS / 2, numCols - PRINT_COLS));
+        int toCol = Math.min(numCols, fromCol + PRINT_COLS);
+
+        System.out.printf("Agent is at: %d,%d\n", agentRow, agentCol);
+        System.out.printf("Columns:%d-%d of %d, rows %d-%d of %d\n", fromCol, toCol - 1, numCols,
+                          fromRow, toRow - 1, numRows);
+        System.out.printf("Col    ");
+        for (int col = fromCol; col < toCol; col++) {
+            System.out.printf("%d ", col % 10);
+        }
+
+        for (int row = fromRow; row < toRow; row++) {
+            System.out.printf("\nRow: %d ", row);
+
+            for (int col = fromCol; col < toCol; col++) {
+                if (agentRow == row && agentCol == col) {
+                    System.out.printf("A ");
+                } else {
+                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_GOAL) {
+                        System.out.printf("G ");
+                    }
+                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_MINE) {
+                        System.out.printf("M ");
+                    }
+                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_OBSTACLE) {
+                        System.out.printf("* ");
+                    }
+                    if (theMap[row][col] == SampleMinesEnvironment.WORLD_FREE) {
+                        System.out.printf("  ");
+                    }
+                }
+            }
+        }
+        System.out.printf("\n");
+    }
+}
@@ -41,10 +41,21 @@ import org.rlcommunity.rlglue.codec.taskspec.ranges.DoubleRange;
 
     The problem is episodic, ending when state 0 or 20 is reached, giving reward -1 or +1, respectively.  The reward is 0 on 
     all other steps.
+
+    The same observation and reward objects are returned on every step, so the
+    environment allocates nothing while running in process (LocalGlue).  The
+    message "copy-results on", sent by main for the socket codec, returns new
+    objects instead.
+
+    The state can be saved and restored in process (saveState/restoreState)
+    or with the messages "save-state" and "restore-state N".
  * @author Brian Tanner
  */
 public class SkeletonEnvironment implements EnvironmentInterface {
     private int currentState=10;
+    private boolean copyResults=false;
+    private final Observation theObservation=new Observation(1,0,0);
+    private final Reward_observation_terminal theRewardObs=new Reward_observation_terminal();
     
     public String env_init() {
 	
@@ -76,7 +87,7 @@ public class SkeletonEnvironment implements EnvironmentInterface {
     public Observation env_start() {
         currentState=10;
         
-        Observation returnObservation=new Observation(1,0,0);
+        Observation returnObservation=copyResults ? new Observation(1,0,0) : theObservation;
         returnObservation.intArray[0]=currentState;
         return returnObservation;
     }
@@ -101,17 +112,47 @@ public class SkeletonEnvironment implements EnvironmentInterface {
             episodeOver=true;
             theReward=1.0d;
         }
-        Observation returnObservation=new Observation(1,0,0);
+        Observation returnObservation=copyResults ? new Observation(1,0,0) : theObservation;
         returnObservation.intArray[0]=currentState;
         
-        Reward_observation_terminal returnRewardObs=new Reward_observation_terminal(theReward,returnObservation,episodeOver);
+        Reward_observation_terminal returnRewardObs=copyResults ? new Reward_observation_terminal() : theRewardObs;
+        returnRewardObs.setReward(theReward);
+        returnRewardObs.setObservation(returnObservation);
+        returnRewardObs.setTerminal(episodeOver);
         return returnRewardObs;
     }
 
     public void env_cleanup() {
     }
 
+    public int saveState() {
+        return currentState;
+    }
+
+    public void restoreState(int state) {
+        if(state<0 || state>20)
+            throw new IllegalArgumentException("Not a valid state: "+state);
+        currentState=state;
+    }
+
     public String env_message(String message) {
+        if(message.equals("copy-results on") || message.equals("copy-results off")){
+            copyResults=message.endsWith(" on");
+            return "Message understood.";
+        }
+
+        if(message.equals("save-state"))
+            return Integer.toString(saveState());
+
+        if(message.startsWith("restore-state ")){
+            try{
+                restoreState(Integer.parseInt(message.substring("restore-state ".length()).trim()));
+            }catch(RuntimeException ex){
+                return "Could not restore the state: "+ex.getMessage();
+            }
+            return "Message understood.";
+        }
+
         if(message.equals("what is your name?"))
             return "my name is skeleton_environment, Java edition!";
 
@@ -123,7 +164,9 @@ public class SkeletonEnvironment implements EnvironmentInterface {
      * @param args
      */
     public static void main(String[] args){
-        EnvironmentLoader theLoader=new EnvironmentLoader(new SkeletonEnvironment());
+        SkeletonEnvironment theEnvironment=new SkeletonEnvironment();
+        theEnvironment.env_message("copy-results on");
+        EnvironmentLoader theLoader=new EnvironmentLoader(theEnvironment);
         theLoader.run();
     }
 